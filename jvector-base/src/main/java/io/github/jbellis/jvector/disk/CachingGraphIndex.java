@@ -16,19 +16,32 @@
 
 package io.github.jbellis.jvector.disk;
 
+import io.github.jbellis.jvector.graph.GraphHierarchy;
 import io.github.jbellis.jvector.graph.GraphIndex;
+import io.github.jbellis.jvector.graph.GraphSearcher;
+import io.github.jbellis.jvector.graph.NodeSimilarity;
 import io.github.jbellis.jvector.graph.NodesIterator;
 import io.github.jbellis.jvector.util.Accountable;
 import io.github.jbellis.jvector.util.Bits;
+import io.github.jbellis.jvector.util.RamUsageEstimator;
+import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 public class CachingGraphIndex implements GraphIndex<float[]>, AutoCloseable, Accountable
 {
     private static final int CACHE_DISTANCE = 3;
 
-    private final GraphCache cache;
+    // replaced as a whole when the cache is warmed
+    private volatile GraphCache cache;
+    // per-node counts of neighbor reads by searches, or null if they are not being recorded
+    private volatile AtomicIntegerArray visitCounts;
+    // null if disabled
+    private final NeighborCache neighborCache;
     private final OnDiskGraphIndex<float[]> graph;
 
     public CachingGraphIndex(OnDiskGraphIndex<float[]> graph)
@@ -37,8 +50,19 @@ public class CachingGraphIndex implements GraphIndex<float[]>, AutoCloseable, Ac
     }
 
     public CachingGraphIndex(OnDiskGraphIndex<float[]> graph, int cacheDistance)
+    {
+        this(graph, cacheDistance, 0);
+    }
+
+    /**
+     * @param cacheDistance nodes within this many hops of the entry node are loaded into a fixed cache up front
+     * @param neighborCacheCapacity if positive, the neighbor lists of up to this many other nodes are cached
+     *                              as they are read, in a {@link NeighborCache} shared by all views
+     */
+    public CachingGraphIndex(OnDiskGraphIndex<float[]> graph, int cacheDistance, int neighborCacheCapacity)
     {
         this.graph = graph;
+        this.neighborCache = neighborCacheCapacity > 0 ? new NeighborCache(neighborCacheCapacity) : null;
         try {
             this.cache = GraphCache.load(graph, cacheDistance);
         } catch (IOException e) {
@@ -58,7 +82,7 @@ public class CachingGraphIndex implements GraphIndex<float[]>, AutoCloseable, Ac
 
     @Override
     public View<float[]> getView() {
-        return new CachedView(graph.getView());
+        return new CachedView(graph.getView(), cache, neighborCache, visitCounts);
     }
 
     @Override
@@ -66,9 +90,85 @@ public class CachingGraphIndex implements GraphIndex<float[]>, AutoCloseable, Ac
         return graph.maxDegree();
     }
 
+    /**
+     * @return the cache of neighbor lists read by searches, or null if it is disabled
+     */
+    public NeighborCache getNeighborCache() {
+        return neighborCache;
+    }
+
+    /**
+     * Starts or stops counting how many times searches through this index's views read each node's neighbors.
+     * Starting discards any previous counts.  Recording costs an atomic increment per hop, so it is meant
+     * to be enabled for a sample of the workload, followed by {@link #warmCacheFromVisits}.
+     */
+    public void setRecordVisits(boolean record) {
+        visitCounts = record ? new AtomicIntegerArray(graph.size()) : null;
+    }
+
+    /**
+     * Replaces the cache with the most-visited nodes recorded since {@link #setRecordVisits} was enabled,
+     * up to the given budget.  Recording continues, so this may be called periodically to follow
+     * changes in the workload.
+     *
+     * @throws IllegalStateException if visits are not being recorded
+     */
+    public void warmCacheFromVisits(long byteBudget) {
+        var counts = visitCounts;
+        if (counts == null) {
+            throw new IllegalStateException("Visits are not being recorded");
+        }
+        warmCache(counts, byteBudget);
+    }
+
+    /**
+     * Replaces the cache with the nodes visited most often by exact searches for the given queries,
+     * up to the given budget.  The searches do not use or affect the current caches.
+     */
+    public void warmCache(List<float[]> queries, VectorSimilarityFunction similarityFunction, int topK, long byteBudget) {
+        var counts = new AtomicIntegerArray(graph.size());
+        try (var view = graph.getView()) {
+            var searcher = new GraphSearcher.Builder<>(new CachedView(view, GraphCache.load(graph, new int[0]), null, counts)).build();
+            for (var query : queries) {
+                var reranker = view.rerankerFor(query, similarityFunction);
+                NodeSimilarity.ExactScoreFunction sf = reranker::similarityTo;
+                searcher.search(sf, null, topK, Bits.ALL);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        warmCache(counts, byteBudget);
+    }
+
+    private void warmCache(AtomicIntegerArray counts, long byteBudget) {
+        // sort the visited nodes by descending count, encoding (count, node) in a long
+        var visited = new long[counts.length()];
+        int n = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            int count = counts.get(i);
+            if (count > 0) {
+                visited[n++] = ((long) count << 32) | i;
+            }
+        }
+        Arrays.sort(visited, 0, n);
+
+        long perNode = GraphCache.bytesPerNode(graph.dimension(), graph.maxDegree());
+        long maxNodes = GraphCache.maxNodes(graph.dimension(), graph.maxDegree());
+        int cached = (int) Math.min(Math.min(n, byteBudget / perNode), maxNodes);
+        var nodes = new int[cached];
+        for (int i = 0; i < cached; i++) {
+            nodes[i] = (int) visited[n - 1 - i];
+        }
+        cache = GraphCache.load(graph, nodes);
+    }
+
     @Override
     public long ramBytesUsed() {
-        return graph.ramBytesUsed() + cache.ramBytesUsed();
+        var counts = visitCounts;
+        return graph.ramBytesUsed()
+               + cache.ramBytesUsed()
+               + (neighborCache == null ? 0 : neighborCache.ramBytesUsed())
+               + (counts == null ? 0 : RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) counts.length() * Integer.BYTES);
     }
 
     @Override
@@ -78,25 +178,49 @@ public class CachingGraphIndex implements GraphIndex<float[]>, AutoCloseable, Ac
 
     private class CachedView implements View<float[]> {
         private final View<float[]> view;
+        // a view keeps using the cache and visit counts that were current when it was created
+        private final GraphCache cache;
+        private final NeighborCache neighborCache;
+        private final AtomicIntegerArray visitCounts;
 
-        public CachedView(View<float[]> view) {
+        public CachedView(View<float[]> view, GraphCache cache, NeighborCache neighborCache, AtomicIntegerArray visitCounts) {
             this.view = view;
+            this.cache = cache;
+            this.neighborCache = neighborCache;
+            this.visitCounts = visitCounts;
         }
 
         @Override
         public NodesIterator getNeighborsIterator(int node) {
-            var cached = cache.getNode(node);
+            if (visitCounts != null) {
+                visitCounts.incrementAndGet(node);
+            }
+            var cached = cache.getNeighbors(node);
             if (cached != null) {
-                return new NodesIterator.ArrayNodesIterator(cached.neighbors, cached.neighbors.length);
+                return cached;
             }
-            return view.getNeighborsIterator(node);
+            if (neighborCache == null) {
+                return view.getNeighborsIterator(node);
+            }
+
+            var neighbors = neighborCache.get(node);
+            if (neighbors == null) {
+                // the view reuses its iterator's array, so the cache copies it -- unless another thread
+                // is caching into the same slot, in which case we just read the view's iterator
+                var it = view.getNeighborsIterator(node);
+                neighbors = neighborCache.put(node, it);
+                if (neighbors == null) {
+                    return it;
+                }
+            }
+            return new NodesIterator.ArrayNodesIterator(neighbors, neighbors.length);
         }
 
         @Override
         public float[] getVector(int node) {
-            var cached = cache.getNode(node);
+            var cached = cache.getVector(node);
             if (cached != null) {
-                return cached.vector;
+                return cached;
             }
             return view.getVector(node);
         }
@@ -111,6 +235,23 @@ public class CachingGraphIndex implements GraphIndex<float[]>, AutoCloseable, Ac
             return view.entryNode();
         }
 
+        @Override
+        public GraphHierarchy hierarchy() {
+            return view.hierarchy();
+        }
+
+        @Override
+        public int[] entryPoints() {
+            return view.entryPoints();
+        }
+
+        @Override
+        public void prefetch(int node) {
+            if (cache.getNeighbors(node) == null && (neighborCache == null || !neighborCache.contains(node))) {
+                view.prefetch(node);
+            }
+        }
+
         @Override
         public Bits liveNodes() {
             return view.liveNodes();
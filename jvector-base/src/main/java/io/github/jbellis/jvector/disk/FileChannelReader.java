@@ -0,0 +1,137 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.disk;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * RandomAccessReader that reads a block at a time into its buffer with positional reads.
+ * See {@link FileChannelReaderSupplier}.
+ * <p>
+ * Not threadsafe; each thread should get its own reader from the supplier.
+ */
+public class FileChannelReader implements RandomAccessReader {
+    private final FileChannel channel;
+    private final FileChannelReaderSupplier supplier;
+    private ByteBuffer buffer;
+    // the file offset of the first byte in the buffer; the buffer's limit is the number of valid bytes
+    private long bufferOffset;
+    private long position;
+
+    FileChannelReader(FileChannel channel, ByteBuffer buffer, FileChannelReaderSupplier supplier) {
+        this.channel = channel;
+        this.supplier = supplier;
+        this.buffer = buffer;
+        // nothing is buffered yet
+        buffer.limit(0);
+    }
+
+    @Override
+    public void seek(long offset) {
+        position = offset;
+    }
+
+    /**
+     * Positions the buffer at the current offset, reading the block that starts there if fewer than
+     * <code>minBytes</code> of it are buffered.
+     *
+     * @return the number of bytes available in the buffer from the current offset
+     */
+    private int fill(int minBytes) throws IOException {
+        long relative = position - bufferOffset;
+        if (relative < 0 || relative + minBytes > buffer.limit()) {
+            buffer.clear();
+            bufferOffset = position;
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, bufferOffset + buffer.position());
+                if (n < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            if (buffer.limit() < minBytes) {
+                throw new EOFException(String.format("Read of %d bytes at %d is past the end of the file", minBytes, position));
+            }
+            relative = 0;
+        }
+        buffer.position((int) relative);
+        return buffer.remaining();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        fill(Integer.BYTES);
+        int value = buffer.getInt();
+        position += Integer.BYTES;
+        return value;
+    }
+
+    @Override
+    public void readFully(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            int count = Math.min(bytes.length - offset, fill(1));
+            buffer.get(bytes, offset, count);
+            offset += count;
+            position += count;
+        }
+    }
+
+    @Override
+    public void readFully(float[] floats) throws IOException {
+        int offset = 0;
+        while (offset < floats.length) {
+            int count = Math.min(floats.length - offset, fill(Float.BYTES) / Float.BYTES);
+            buffer.asFloatBuffer().get(floats, offset, count);
+            offset += count;
+            position += (long) count * Float.BYTES;
+        }
+    }
+
+    @Override
+    public void readFully(long[] longs) throws IOException {
+        int offset = 0;
+        while (offset < longs.length) {
+            int count = Math.min(longs.length - offset, fill(Long.BYTES) / Long.BYTES);
+            buffer.asLongBuffer().get(longs, offset, count);
+            offset += count;
+            position += (long) count * Long.BYTES;
+        }
+    }
+
+    @Override
+    public void read(int[] ints, int offset, int count) throws IOException {
+        int end = offset + count;
+        while (offset < end) {
+            int n = Math.min(end - offset, fill(Integer.BYTES) / Integer.BYTES);
+            buffer.asIntBuffer().get(ints, offset, n);
+            offset += n;
+            position += (long) n * Integer.BYTES;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (buffer != null) {
+            supplier.release(buffer);
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.disk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Supplies readers that use positional reads (pread) against a shared FileChannel instead of
+ * memory-mapping the file.  Each reader buffers one block of the file in a direct buffer; buffers
+ * are pooled and reused as readers are closed and opened.  Memory use is therefore bounded by
+ * blockSize times the number of open readers, and none of it is page cache charged to the process.
+ */
+public class FileChannelReaderSupplier implements ReaderSupplier {
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    private final FileChannel channel;
+    private final int blockSize;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    public FileChannelReaderSupplier(Path path) throws IOException {
+        this(path, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize the number of bytes each reader reads at a time.  Reads that fit in a block that is
+     *                  already buffered do not touch the file; larger ones are split into blocks.
+     */
+    public FileChannelReaderSupplier(Path path, int blockSize) throws IOException {
+        if (blockSize < Long.BYTES) {
+            throw new IllegalArgumentException("blockSize must be at least " + Long.BYTES + ", got " + blockSize);
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public RandomAccessReader get() {
+        var buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(blockSize);
+        }
+        return new FileChannelReader(channel, buffer, this);
+    }
+
+    /**
+     * Returns a reader's buffer to the pool.
+     */
+    void release(ByteBuffer buffer) {
+        buffers.offer(buffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
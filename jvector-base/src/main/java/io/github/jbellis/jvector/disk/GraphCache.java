@@ -17,12 +17,15 @@
 package io.github.jbellis.jvector.disk;
 
 import io.github.jbellis.jvector.graph.GraphIndex;
+import io.github.jbellis.jvector.graph.NodesIterator;
 import io.github.jbellis.jvector.util.Accountable;
+import io.github.jbellis.jvector.util.ArrayUtil;
 import io.github.jbellis.jvector.util.RamUsageEstimator;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
 
 public abstract class GraphCache implements Accountable
 {
@@ -36,14 +39,118 @@ public abstract class GraphCache implements Accountable
         }
     }
 
-    /** return the cached node if present, or null if not */
-    public abstract CachedNode getNode(int ordinal);
+    /**
+     * return the cached node if present, or null if not.  This copies the node out of the cache;
+     * prefer getNeighbors and getVector, which only copy what is needed.
+     */
+    public CachedNode getNode(int ordinal) {
+        var it = getNeighbors(ordinal);
+        if (it == null) {
+            return null;
+        }
+        var neighbors = new int[it.size()];
+        for (int i = 0; i < neighbors.length; i++) {
+            neighbors[i] = it.nextInt();
+        }
+        return new CachedNode(getVector(ordinal), neighbors);
+    }
+
+    /** return an iterator over the cached node's neighbors if present, or null if not */
+    public abstract NodesIterator getNeighbors(int ordinal);
+
+    /** return a copy of the cached node's vector if present, or null if not */
+    public abstract float[] getVector(int ordinal);
 
     public static GraphCache load(GraphIndex<float[]> graph, int distance) throws IOException
     {
         if (distance < 0)
             return new EmptyGraphCache();
-        return new HMGraphCache(graph, distance);
+
+        // the cache copies what it needs from the view, so the view is not kept open
+        try (var view = graph.getView()) {
+            int maxNodes = maxNodes(view.getVector(view.entryNode()).length, graph.maxDegree());
+            // breadth-first walk out to the given distance from the entry node
+            var nodes = new int[16];
+            var nodeNeighbors = new int[16][];
+            int count = 0;
+            var seen = new HashSet<Integer>();
+            var queue = new ArrayDeque<int[]>(); // (node, depth)
+            queue.add(new int[] {view.entryNode(), 0});
+            seen.add(view.entryNode());
+            while (!queue.isEmpty() && count < maxNodes) {
+                var next = queue.poll();
+                var neighbors = neighborsOf(view, next[0]);
+                if (count == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, 2 * count);
+                    nodeNeighbors = Arrays.copyOf(nodeNeighbors, 2 * count);
+                }
+                nodes[count] = next[0];
+                nodeNeighbors[count] = neighbors;
+                count++;
+                if (next[1] < distance) {
+                    for (int neighbor : neighbors) {
+                        if (seen.add(neighbor)) {
+                            queue.add(new int[] {neighbor, next[1] + 1});
+                        }
+                    }
+                }
+            }
+            return new FlatGraphCache(view, nodes, nodeNeighbors, count);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @return a cache of exactly the given nodes
+     */
+    public static GraphCache load(GraphIndex<float[]> graph, int[] nodes)
+    {
+        if (nodes.length == 0)
+            return new EmptyGraphCache();
+
+        try (var view = graph.getView()) {
+            var nodeNeighbors = new int[nodes.length][];
+            for (int i = 0; i < nodes.length; i++) {
+                nodeNeighbors[i] = neighborsOf(view, nodes[i]);
+            }
+            return new FlatGraphCache(view, nodes, nodeNeighbors, nodes.length);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return an upper bound on the bytes of cache used by each node with the given vector dimension
+     * and maximum degree, excluding the cache's fixed overhead
+     */
+    public static long bytesPerNode(int dimension, int maxDegree) {
+        // vector, neighbors, neighbor offset, and up to four hash table slots of two ints each
+        return (long) Float.BYTES * dimension + (long) Integer.BYTES * (maxDegree + 1 + 8);
+    }
+
+    /**
+     * @return the most nodes that a cache can hold with the given vector dimension and maximum degree,
+     * since all their vectors (and all their neighbors) are stored in a single array
+     */
+    public static int maxNodes(int dimension, int maxDegree) {
+        long max = Math.min(ArrayUtil.MAX_ARRAY_LENGTH / Math.max(dimension, 1),
+                            ArrayUtil.MAX_ARRAY_LENGTH / Math.max(maxDegree, 1));
+        // the hash table has up to four slots per node, and its size is a power of two
+        return (int) Math.min(max, 1 << 28);
+    }
+
+    private static int[] neighborsOf(GraphIndex.View<float[]> view, int node) {
+        var it = view.getNeighborsIterator(node);
+        var neighbors = new int[it.size()];
+        for (int i = 0; i < neighbors.length; i++) {
+            neighbors[i] = it.nextInt();
+        }
+        return neighbors;
     }
 
     public abstract long ramBytesUsed();
@@ -51,7 +158,12 @@ public abstract class GraphCache implements Accountable
     private static final class EmptyGraphCache extends GraphCache
     {
         @Override
-        public CachedNode getNode(int ordinal) {
+        public NodesIterator getNeighbors(int ordinal) {
+            return null;
+        }
+
+        @Override
+        public float[] getVector(int ordinal) {
             return null;
         }
 
@@ -62,52 +174,120 @@ public abstract class GraphCache implements Accountable
         }
     }
 
-    private static final class HMGraphCache extends GraphCache
+    /**
+     * Stores the cached nodes in a handful of flat primitive arrays, instead of an object per node.
+     * Ordinals are looked up in an open-addressed hash table (linear probing) that maps them to their
+     * index i in the cache; node i's neighbors are neighbors[neighborOffsets[i]..neighborOffsets[i + 1]),
+     * and its vector is vectors[i * dimension..(i + 1) * dimension).
+     * <p>
+     * All the arrays are created on construction and never modified.
+     */
+    private static final class FlatGraphCache extends GraphCache
     {
-        // Map is created on construction and never modified
-        private final Map<Integer, CachedNode> cache;
-        private long ramBytesUsed = 0;
-
-        public HMGraphCache(GraphIndex<float[]> graph, int distance) {
-            var view = graph.getView();
-            HashMap<Integer, CachedNode> tmpCache = new HashMap<>();
-            cacheNeighborsOf(tmpCache, view, view.entryNode(), distance);
-            // Assigning to a final value ensure it is safely published
-            cache = tmpCache;
-        }
-
-        private void cacheNeighborsOf(HashMap<Integer, CachedNode> tmpCache, GraphIndex.View<float[]> view, int ordinal, int distance) {
-            // cache this node
-            var it = view.getNeighborsIterator(ordinal);
-            int[] neighbors = new int[it.size()];
-            int i = 0;
-            while (it.hasNext()) {
-                neighbors[i++] = it.next();
+        private static final int EMPTY = -1;
+
+        // open-addressed table of ordinals, and the index of each one in the arrays below
+        private final int[] keys;
+        private final int[] indexes;
+        private final int mask;
+
+        private final int dimension;
+        private final int[] neighborOffsets;
+        private final int[] neighbors;
+        private final float[] vectors;
+
+        /**
+         * @param nodes the ordinals to cache, in the first count positions
+         * @param nodeNeighbors the neighbors of each of those nodes
+         */
+        FlatGraphCache(GraphIndex.View<float[]> view, int[] nodes, int[][] nodeNeighbors, int count) {
+            long totalNeighbors = 0;
+            for (int i = 0; i < count; i++) {
+                totalNeighbors += nodeNeighbors[i].length;
             }
-            var node = new CachedNode(view.getVector(ordinal), neighbors);
-            tmpCache.put(ordinal, node);
-            ramBytesUsed += RamUsageEstimator.HASHTABLE_RAM_BYTES_PER_ENTRY + RamUsageEstimator.sizeOf(node.vector) + RamUsageEstimator.sizeOf(node.neighbors);
-
-            // call recursively on neighbors
-            if (distance > 0) {
-                for (var neighbor : neighbors) {
-                    if (!tmpCache.containsKey(neighbor)) {
-                        cacheNeighborsOf(tmpCache, view, neighbor, distance - 1);
-                    }
-                }
+            dimension = count == 0 ? 0 : view.getVector(nodes[0]).length;
+            long totalFloats = (long) count * dimension;
+            if (totalFloats > ArrayUtil.MAX_ARRAY_LENGTH || totalNeighbors > ArrayUtil.MAX_ARRAY_LENGTH) {
+                throw new IllegalArgumentException(String.format("%d nodes with %d neighbors of dimension %d do not fit in a cache; see maxNodes",
+                                                                 count, totalNeighbors, dimension));
             }
+
+            // pack the nodes into the flat arrays
+            int tableSize = Integer.highestOneBit(Math.max(2 * count - 1, 1)) << 1;
+            keys = new int[tableSize];
+            Arrays.fill(keys, EMPTY);
+            indexes = new int[tableSize];
+            mask = tableSize - 1;
+
+            neighborOffsets = new int[count + 1];
+            neighbors = new int[(int) totalNeighbors];
+            vectors = new float[(int) totalFloats];
+            for (int i = 0; i < count; i++) {
+                int node = nodes[i];
+                int slot = slot(node);
+                keys[slot] = node;
+                indexes[slot] = i;
+
+                System.arraycopy(nodeNeighbors[i], 0, neighbors, neighborOffsets[i], nodeNeighbors[i].length);
+                neighborOffsets[i + 1] = neighborOffsets[i] + nodeNeighbors[i].length;
+                System.arraycopy(view.getVector(node), 0, vectors, vectorOffset(i), dimension);
+            }
+        }
+
+        /**
+         * @return the slot holding the ordinal, or the empty slot where it would go
+         */
+        private int slot(int ordinal) {
+            // spread the bits of ordinals that are close together (murmur3 finalizer)
+            int h = ordinal * 0x85ebca6b;
+            h ^= h >>> 16;
+            int slot = h & mask;
+            while (keys[slot] != EMPTY && keys[slot] != ordinal) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private int indexOf(int ordinal) {
+            int slot = slot(ordinal);
+            return keys[slot] == EMPTY ? -1 : indexes[slot];
         }
 
+        @Override
+        public NodesIterator getNeighbors(int ordinal) {
+            int i = indexOf(ordinal);
+            if (i < 0) {
+                return null;
+            }
+            return new NodesIterator.ArrayNodesIterator(neighbors, neighborOffsets[i], neighborOffsets[i + 1] - neighborOffsets[i]);
+        }
 
         @Override
-        public CachedNode getNode(int ordinal) {
-            return cache.get(ordinal);
+        public float[] getVector(int ordinal) {
+            int i = indexOf(ordinal);
+            if (i < 0) {
+                return null;
+            }
+            int offset = vectorOffset(i);
+            return Arrays.copyOfRange(vectors, offset, offset + dimension);
+        }
+
+        /**
+         * @return the offset of node i's vector; the constructor checked that every vector fits in an int offset
+         */
+        private int vectorOffset(int i) {
+            return (int) ((long) i * dimension);
         }
 
         @Override
         public long ramBytesUsed()
         {
-            return ramBytesUsed;
+            return RamUsageEstimator.shallowSizeOfInstance(FlatGraphCache.class)
+                   + RamUsageEstimator.sizeOf(keys)
+                   + RamUsageEstimator.sizeOf(indexes)
+                   + RamUsageEstimator.sizeOf(neighborOffsets)
+                   + RamUsageEstimator.sizeOf(neighbors)
+                   + RamUsageEstimator.sizeOf(vectors);
         }
     }
 }
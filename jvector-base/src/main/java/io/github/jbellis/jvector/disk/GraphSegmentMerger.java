@@ -0,0 +1,189 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.disk;
+
+import io.github.jbellis.jvector.graph.GraphIndexBuilder;
+import io.github.jbellis.jvector.graph.ListRandomAccessVectorValues;
+import io.github.jbellis.jvector.util.Bits;
+import io.github.jbellis.jvector.util.FixedBitSet;
+import io.github.jbellis.jvector.vector.VectorEncoding;
+import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Merges several on-disk graphs over vectors of the same dimension into one, without rebuilding it from scratch.
+ * <p>
+ * The merged graph is seeded with the existing adjacency of every input, so only the edges between inputs
+ * have to be found by searching.  Every node of the largest input keeps its neighbors without a search; it
+ * gains edges to the other inputs as their nodes are connected to it and add backlinks.  The nodes of the
+ * other inputs, and the nodes of the largest one that lost a neighbor to deletion, are re-inserted with
+ * {@link GraphIndexBuilder#improveConnections}, which searches the merged graph and keeps the most diverse
+ * of their old and new neighbors.
+ */
+public final class GraphSegmentMerger {
+    private GraphSegmentMerger() {
+    }
+
+    /**
+     * Writes the merge of the given graphs to `output`, dropping the nodes marked deleted in each of them
+     * (see {@link OnDiskGraphIndex#markDeleted}).
+     */
+    public static int[][] merge(List<OnDiskGraphIndex<float[]>> segments,
+                                VectorSimilarityFunction similarityFunction,
+                                int M,
+                                int beamWidth,
+                                float neighborOverflow,
+                                float alpha,
+                                Path output)
+            throws IOException
+    {
+        var liveNodes = segments.stream()
+                .map(segment -> Bits.inverseOf(segment.getDeletedNodes()))
+                .collect(Collectors.toList());
+        return merge(segments, liveNodes, similarityFunction, M, beamWidth, neighborOverflow, alpha, output);
+    }
+
+    /**
+     * Writes the merge of the given graphs to `output`.  The nodes are numbered in input order, and within
+     * an input in ordinal order, skipping deleted nodes.
+     *
+     * @param segments   the graphs to merge
+     * @param liveNodes  for each graph, the nodes to keep; {@link Bits#ALL} keeps them all
+     * @param similarityFunction the similarity function the graphs were built with
+     * @param M          the maximum number of connections a node of the merged graph can have
+     * @param beamWidth  the size of the beam search to use when connecting the graphs
+     * @param neighborOverflow the ratio of extra neighbors to allow temporarily when connecting a node
+     * @param alpha      how aggressive pruning diverse neighbors should be
+     * @param output     the file to write the merged graph to
+     * @return for each graph, the ordinal of each of its nodes in the merged graph, or -1 if it was deleted
+     */
+    public static int[][] merge(List<OnDiskGraphIndex<float[]>> segments,
+                                List<Bits> liveNodes,
+                                VectorSimilarityFunction similarityFunction,
+                                int M,
+                                int beamWidth,
+                                float neighborOverflow,
+                                float alpha,
+                                Path output)
+            throws IOException
+    {
+        if (segments.isEmpty()) {
+            throw new IllegalArgumentException("No segments to merge");
+        }
+        if (liveNodes.size() != segments.size()) {
+            throw new IllegalArgumentException(String.format("Got %d liveNodes for %d segments", liveNodes.size(), segments.size()));
+        }
+        int dimension = segments.get(0).dimension();
+        for (var segment : segments) {
+            if (segment.dimension() != dimension) {
+                throw new IllegalArgumentException(String.format("Segments have dimensions %d and %d", dimension, segment.dimension()));
+            }
+        }
+
+        // assign the merged ordinals, and collect the vectors of the surviving nodes
+        var ordinals = new int[segments.size()][];
+        var vectors = new ArrayList<float[]>();
+        int largest = 0;
+        int largestCount = -1;
+        for (int s = 0; s < segments.size(); s++) {
+            var segment = segments.get(s);
+            var live = liveNodes.get(s);
+            ordinals[s] = new int[segment.size()];
+            int before = vectors.size();
+            try (var view = segment.getView()) {
+                for (int node = 0; node < segment.size(); node++) {
+                    if (live.get(node)) {
+                        ordinals[s][node] = vectors.size();
+                        vectors.add(view.getVector(node));
+                    } else {
+                        ordinals[s][node] = -1;
+                    }
+                }
+            }
+            if (vectors.size() - before > largestCount) {
+                largest = s;
+                largestCount = vectors.size() - before;
+            }
+        }
+
+        var ravv = new ListRandomAccessVectorValues(vectors, dimension);
+        var builder = new GraphIndexBuilder<>(ravv, VectorEncoding.FLOAT32, similarityFunction, M, beamWidth, neighborOverflow, alpha);
+
+        // seed the merged graph with the adjacency of each input, starting with the largest so that the
+        // entry node is in it; nodes that have to be reconnected are collected as we go
+        var reconnect = new FixedBitSet(Math.max(1, vectors.size()));
+        seed(builder, segments.get(largest), ordinals[largest], false, reconnect);
+        for (int s = 0; s < segments.size(); s++) {
+            if (s != largest) {
+                seed(builder, segments.get(s), ordinals[s], true, reconnect);
+            }
+        }
+
+        // connect the inputs to each other
+        int[] nodes = IntStream.range(0, vectors.size()).filter(reconnect::get).toArray();
+        ForkJoinPool.commonPool().submit(() -> Arrays.stream(nodes).parallel().forEach(builder::improveConnections)).join();
+        builder.cleanup();
+
+        OnDiskGraphIndex.write(builder.getGraph(), ravv, null, IntStream.range(0, vectors.size()).toArray(), output);
+        return ordinals;
+    }
+
+    /**
+     * Adds the surviving nodes of a segment to the builder with their surviving neighbors.
+     *
+     * @param reconnectAll if true, marks all the nodes to be reconnected; otherwise only those that lost a neighbor
+     */
+    private static void seed(GraphIndexBuilder<float[]> builder,
+                             OnDiskGraphIndex<float[]> segment,
+                             int[] ordinals,
+                             boolean reconnectAll,
+                             FixedBitSet reconnect)
+            throws IOException
+    {
+        var neighbors = new int[segment.maxDegree()];
+        try (var view = segment.getView()) {
+            for (int node = 0; node < segment.size(); node++) {
+                if (ordinals[node] < 0) {
+                    continue;
+                }
+                var it = view.getNeighborsIterator(node);
+                int count = 0;
+                boolean lostNeighbor = false;
+                while (it.hasNext()) {
+                    int neighbor = ordinals[it.nextInt()];
+                    if (neighbor < 0) {
+                        lostNeighbor = true;
+                    } else {
+                        neighbors[count++] = neighbor;
+                    }
+                }
+                builder.addGraphNodeWithNeighbors(ordinals[node], neighbors, count);
+                if (reconnectAll || lostNeighbor) {
+                    reconnect.set(ordinals[node]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.disk;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * RandomAccessReader over the segments mapped by {@link MultiSegmentMappedReaderSupplier}.
+ * Bulk reads are copied a segment at a time through typed buffer views rather than element by element.
+ * <p>
+ * Not threadsafe; each thread should get its own reader from the supplier.
+ */
+public class MultiSegmentMappedReader implements RandomAccessReader {
+    // enough for the largest primitive we read
+    static final int OVERLAP = Long.BYTES;
+
+    private final ByteBuffer[] sharedSegments;
+    // this reader's own duplicates of the shared segments, created lazily so that opening a reader is cheap
+    private final ByteBuffer[] segments;
+    private final int segmentSizeBits;
+    private final long segmentMask;
+    private final long length;
+    private final MultiSegmentMappedReaderSupplier supplier;
+    private long position;
+
+    MultiSegmentMappedReader(ByteBuffer[] sharedSegments, int segmentSizeBits, long length, MultiSegmentMappedReaderSupplier supplier) {
+        this.sharedSegments = sharedSegments;
+        this.segments = new ByteBuffer[sharedSegments.length];
+        this.segmentSizeBits = segmentSizeBits;
+        this.segmentMask = (1L << segmentSizeBits) - 1;
+        this.length = length;
+        this.supplier = supplier;
+    }
+
+    private ByteBuffer segment(int i) {
+        var segment = segments[i];
+        if (segment == null) {
+            segment = sharedSegments[i].duplicate();
+            segments[i] = segment;
+        }
+        return segment;
+    }
+
+    /**
+     * Positions the segment containing the current offset at it, and returns it.
+     */
+    private ByteBuffer current() {
+        if (position >= length) {
+            throw new BufferUnderflowException();
+        }
+        var segment = segment((int) (position >>> segmentSizeBits));
+        segment.position((int) (position & segmentMask));
+        return segment;
+    }
+
+    @Override
+    public void seek(long offset) {
+        position = Math.min(offset, length);
+    }
+
+    public long position() {
+        return position;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int readInt() {
+        int value = current().getInt();
+        position += Integer.BYTES;
+        return value;
+    }
+
+    @Override
+    public void readFully(byte[] bytes) {
+        int offset = 0;
+        while (offset < bytes.length) {
+            var segment = current();
+            int count = Math.min(bytes.length - offset, segment.remaining());
+            segment.get(bytes, offset, count);
+            offset += count;
+            position += count;
+        }
+    }
+
+    @Override
+    public void readFully(float[] floats) {
+        int offset = 0;
+        while (offset < floats.length) {
+            var segment = current();
+            int count = Math.min(floats.length - offset, available(segment, Float.BYTES));
+            segment.asFloatBuffer().get(floats, offset, count);
+            offset += count;
+            position += (long) count * Float.BYTES;
+        }
+    }
+
+    @Override
+    public void readFully(long[] longs) {
+        int offset = 0;
+        while (offset < longs.length) {
+            var segment = current();
+            int count = Math.min(longs.length - offset, available(segment, Long.BYTES));
+            segment.asLongBuffer().get(longs, offset, count);
+            offset += count;
+            position += (long) count * Long.BYTES;
+        }
+    }
+
+    @Override
+    public void read(int[] ints, int offset, int count) {
+        int end = offset + count;
+        while (offset < end) {
+            var segment = current();
+            int n = Math.min(end - offset, available(segment, Integer.BYTES));
+            segment.asIntBuffer().get(ints, offset, n);
+            offset += n;
+            position += (long) n * Integer.BYTES;
+        }
+    }
+
+    @Override
+    public void prefetch(long offset, int length) {
+        supplier.prefetch(offset, length);
+    }
+
+    /**
+     * @return the number of whole elements of the given size left in the segment
+     */
+    private static int available(ByteBuffer segment, int elementSize) {
+        int n = segment.remaining() / elementSize;
+        if (n == 0) {
+            // only possible at the end of the file, since segments overlap by at least one element
+            throw new BufferUnderflowException();
+        }
+        return n;
+    }
+
+    @Override
+    public void close() {
+        // the mappings are shared; the supplier releases them
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.disk;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Memory-maps a file of any size as a sequence of segments of at most 1GB each, working around the
+ * 2GB limit of a single MappedByteBuffer.  Readers handed out by {@link #get()} share the mappings,
+ * which are released when the supplier is closed.
+ * <p>
+ * Optionally, the supplier can run background threads that act on {@link RandomAccessReader#prefetch}
+ * hints by touching the pages of the hinted ranges, so that page faults for data a search will need
+ * soon are taken off the searching thread.
+ */
+public class MultiSegmentMappedReaderSupplier implements ReaderSupplier {
+    static final int DEFAULT_SEGMENT_SIZE_BITS = 30;
+    private static final int PAGE_SIZE = 4096;
+    // prefetch hints beyond this many outstanding ones are dropped
+    private static final int MAX_PENDING_PREFETCHES = 1024;
+    // the number of recently hinted pages remembered, so that repeated hints skip the executor
+    private static final int RECENT_PAGES = 4096;
+
+    private final MappedByteBuffer[] segments;
+    private final int segmentSizeBits;
+    private final long segmentMask;
+    private final long length;
+    // null if prefetching is disabled
+    private final ThreadPoolExecutor prefetchExecutor;
+    // keeps the JIT from eliminating the reads that touch the pages
+    private volatile byte prefetchSink;
+    // direct-mapped by page number; each slot holds page + 1 for a recently hinted page, or 0
+    private final AtomicLongArray recentPages;
+
+    public MultiSegmentMappedReaderSupplier(Path path) throws IOException {
+        this(path, 0);
+    }
+
+    /**
+     * @param prefetchThreads the number of background threads acting on prefetch hints; 0 ignores them
+     */
+    public MultiSegmentMappedReaderSupplier(Path path, int prefetchThreads) throws IOException {
+        this(path, prefetchThreads, DEFAULT_SEGMENT_SIZE_BITS);
+    }
+
+    /**
+     * @param segmentSizeBits log2 of the segment size; smaller segments are useful for testing
+     */
+    MultiSegmentMappedReaderSupplier(Path path, int prefetchThreads, int segmentSizeBits) throws IOException {
+        if (segmentSizeBits < 4 || segmentSizeBits > 30) {
+            throw new IllegalArgumentException("segmentSizeBits must be between 4 and 30, got " + segmentSizeBits);
+        }
+        if (prefetchThreads < 0) {
+            throw new IllegalArgumentException("prefetchThreads must be non-negative, got " + prefetchThreads);
+        }
+        this.segmentSizeBits = segmentSizeBits;
+        this.segmentMask = (1L << segmentSizeBits) - 1;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            length = channel.size();
+            long segmentSize = 1L << segmentSizeBits;
+            int segmentCount = (int) ((length + segmentSize - 1) >>> segmentSizeBits);
+            segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long start = i * segmentSize;
+                // each segment overlaps the next by OVERLAP bytes, so that a primitive value starting
+                // in a segment can always be read from it in full
+                long size = Math.min(segmentSize + MultiSegmentMappedReader.OVERLAP, length - start);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+        }
+        if (prefetchThreads > 0) {
+            prefetchExecutor = new ThreadPoolExecutor(prefetchThreads, prefetchThreads, 0, TimeUnit.SECONDS,
+                                                      new ArrayBlockingQueue<>(MAX_PENDING_PREFETCHES),
+                                                      r -> {
+                                                          var t = new Thread(r, "jvector-prefetch");
+                                                          t.setDaemon(true);
+                                                          return t;
+                                                      },
+                                                      new ThreadPoolExecutor.DiscardPolicy());
+            recentPages = new AtomicLongArray(RECENT_PAGES);
+        } else {
+            prefetchExecutor = null;
+            recentPages = null;
+        }
+    }
+
+    @Override
+    public RandomAccessReader get() {
+        return new MultiSegmentMappedReader(segments, segmentSizeBits, length, this);
+    }
+
+    /**
+     * Asynchronously touches each page of the given range, if prefetching is enabled.
+     */
+    void prefetch(long offset, int length) {
+        if (prefetchExecutor == null || offset >= this.length) {
+            return;
+        }
+        long end = Math.min(offset + length, this.length);
+        if (!markRecentlyHinted(offset, end)) {
+            // every page was just hinted, and is being (or has been) touched already
+            return;
+        }
+        prefetchExecutor.execute(() -> {
+            byte b = 0;
+            for (long page = offset & -PAGE_SIZE; page < end; page += PAGE_SIZE) {
+                long position = Math.max(page, offset);
+                b ^= segments[(int) (position >>> segmentSizeBits)].get((int) (position & segmentMask));
+            }
+            prefetchSink = b;
+        });
+    }
+
+    /**
+     * Remembers the pages of [offset, end) as recently hinted.
+     *
+     * @return true if any of them had not been hinted recently
+     */
+    private boolean markRecentlyHinted(long offset, long end) {
+        boolean any = false;
+        for (long page = offset / PAGE_SIZE; page <= (end - 1) / PAGE_SIZE; page++) {
+            int slot = (int) (page & (RECENT_PAGES - 1));
+            if (recentPages.get(slot) != page + 1) {
+                recentPages.set(slot, page + 1);
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    @Override
+    public void close() {
+        if (prefetchExecutor != null) {
+            // pending touches must not run against unmapped segments
+            prefetchExecutor.shutdownNow();
+            try {
+                prefetchExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (var segment : segments) {
+            SimpleMappedReader.unmap(segment);
+        }
+    }
+}
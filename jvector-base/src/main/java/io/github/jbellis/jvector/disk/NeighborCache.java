@@ -0,0 +1,286 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.disk;
+
+import io.github.jbellis.jvector.graph.NodesIterator;
+import io.github.jbellis.jvector.util.Accountable;
+import io.github.jbellis.jvector.util.RamUsageEstimator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-bounded cache of neighbor lists keyed by node ordinal, evicting with the CLOCK algorithm
+ * (a cheap approximation of LRU).  Hit and miss counts are kept to help size the cache.
+ * <p>
+ * The slots are split into sets of up to eight, and each node hashes to one set, which is probed for it
+ * linearly; each set runs its own clock.  A slot's stamp holds the node in it and a version.  Writers claim
+ * a slot by making its version odd with a compare-and-set, and skip caching the node if another writer holds
+ * it; readers check that the stamp did not change while they read the neighbors.  So neither lookups nor
+ * insertions block, and a hit always returns the neighbors of the node that was asked for.
+ * <p>
+ * Only adjacency is cached: it is what every hop of a search reads, while full vectors are only
+ * needed to rerank the final results.
+ */
+public final class NeighborCache implements Accountable {
+    private static final int WAYS = 8;
+
+    // version in the high half, node in the low; version 0 is a slot that was never written, and an odd one is being written
+    private final AtomicLongArray stamps;
+    private final AtomicReferenceArray<int[]> neighbors;
+    // set on every hit, cleared as the clock hand of the slot's set passes
+    private final AtomicIntegerArray referenced;
+    // the clock hand of each set, relative to its first slot
+    private final AtomicIntegerArray hands;
+    private final int sets;
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder neighborBytes = new LongAdder();
+
+    /**
+     * @param capacity the maximum number of neighbor lists to cache
+     */
+    public NeighborCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive, got " + capacity);
+        }
+        this.sets = (capacity + WAYS - 1) / WAYS;
+        this.stamps = new AtomicLongArray(capacity);
+        this.neighbors = new AtomicReferenceArray<>(capacity);
+        this.referenced = new AtomicIntegerArray(capacity);
+        this.hands = new AtomicIntegerArray(sets);
+    }
+
+    /**
+     * @return the cached neighbors of the node, or null if they are not cached.  Do not modify the returned array.
+     */
+    public int[] get(int node) {
+        int set = setOf(node);
+        for (int i = setStart(set); i < setStart(set + 1); i++) {
+            var cached = read(i, node);
+            if (cached != null) {
+                hits.increment();
+                if (referenced.get(i) == 0) {
+                    referenced.set(i, 1);
+                }
+                return cached;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * @return true if the node's neighbors are cached.  Unlike get, does not count as a hit or miss
+     * or mark the entry as recently used.
+     */
+    public boolean contains(int node) {
+        int set = setOf(node);
+        for (int i = setStart(set); i < setStart(set + 1); i++) {
+            if (read(i, node) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Caches the neighbors of the node, evicting another node's if its set is full.  The array
+     * must not be modified afterwards.
+     *
+     * @return false if the neighbors were not cached, because the node is already cached or
+     * another thread is updating the slot it would go in
+     */
+    public boolean put(int node, int[] neighbors) {
+        int slot = claim(node);
+        if (slot < 0) {
+            return false;
+        }
+        publish(slot, node, neighbors);
+        return true;
+    }
+
+    /**
+     * Caches a copy of the neighbors the iterator returns, as {@link #put(int, int[])} does.  Nothing is copied,
+     * and the iterator is not advanced, if they would not be cached.
+     *
+     * @return the cached copy of the neighbors, or null if they were not cached
+     */
+    public int[] put(int node, NodesIterator it) {
+        int slot = claim(node);
+        if (slot < 0) {
+            return null;
+        }
+        var copy = new int[it.size()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = it.nextInt();
+        }
+        publish(slot, node, copy);
+        return copy;
+    }
+
+    /**
+     * @return the neighbors in slot i if it holds the node, or null
+     */
+    private int[] read(int i, int node) {
+        long stamp = stamps.get(i);
+        if (!holds(stamp, node)) {
+            return null;
+        }
+        var cached = neighbors.get(i);
+        return stamps.get(i) == stamp ? cached : null;
+    }
+
+    /**
+     * Picks the slot in the node's set to cache its neighbors in and marks it as being written.
+     *
+     * @return the slot, or -1 if the node is cached (or being cached) already or the slot is held by another writer
+     */
+    private int claim(int node) {
+        int set = setOf(node);
+        int start = setStart(set);
+        int ways = setStart(set + 1) - start;
+        int victim = -1;
+        for (int i = start; i < start + ways; i++) {
+            long stamp = stamps.get(i);
+            if (version(stamp) != 0 && node(stamp) == node) {
+                return -1;
+            }
+            if (victim < 0 && version(stamp) == 0) {
+                victim = i;
+            }
+        }
+        if (victim < 0) {
+            // advance the hand past recently used entries, giving each a second chance; racing writers may
+            // each move it, which only perturbs the order in which entries are evicted
+            int hand = hands.get(set);
+            for (int n = 0; n < 2 * ways && referenced.get(start + hand) != 0; n++) {
+                referenced.set(start + hand, 0);
+                hand = (hand + 1) % ways;
+            }
+            victim = start + hand;
+            hands.set(set, (hand + 1) % ways);
+        }
+
+        long stamp = stamps.get(victim);
+        int version = version(stamp);
+        if ((version & 1) != 0 || !stamps.compareAndSet(victim, stamp, stamp(version + 1, node))) {
+            return -1;
+        }
+        if (cachedElsewhere(node, start, ways, victim)) {
+            // the slot's neighbors were not touched, so its old stamp still describes them
+            stamps.set(victim, stamp);
+            return -1;
+        }
+        return victim;
+    }
+
+    /**
+     * Checks whether another writer cached the node, or claimed a slot for it, after the first scan of its set.
+     * Of two writers racing to cache the same node, the one that claimed the later slot gives way.
+     *
+     * @return true if the node is cached, or being cached into an earlier slot than claimed, in another slot of the set
+     */
+    private boolean cachedElsewhere(int node, int start, int ways, int claimed) {
+        for (int i = start; i < start + ways; i++) {
+            long stamp = stamps.get(i);
+            int version = version(stamp);
+            if (i == claimed || version == 0 || node(stamp) != node) {
+                continue;
+            }
+            if ((version & 1) == 0 || i < claimed) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stores the neighbors in a slot claimed by this thread and makes them visible to readers.
+     */
+    private void publish(int slot, int node, int[] cached) {
+        int version = version(stamps.get(slot));
+        var evicted = neighbors.getAndSet(slot, cached);
+        if (evicted == null) {
+            size.incrementAndGet();
+        } else {
+            neighborBytes.add(-RamUsageEstimator.sizeOf(evicted));
+        }
+        neighborBytes.add(RamUsageEstimator.sizeOf(cached));
+        referenced.set(slot, 0);
+        stamps.set(slot, stamp(version + 1, node));
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int capacity() {
+        return stamps.length();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        int capacity = capacity();
+        long slotBytes = (long) capacity * (Long.BYTES + RamUsageEstimator.NUM_BYTES_OBJECT_REF + Integer.BYTES);
+        return slotBytes + (long) sets * Integer.BYTES + 4L * RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + neighborBytes.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("NeighborCache(size=%d, capacity=%d, hits=%d, misses=%d)", size(), capacity(), hitCount(), missCount());
+    }
+
+    private int setOf(int node) {
+        return (int) (((node * 0x9E3779B9) & 0xFFFFFFFFL) * sets >>> 32);
+    }
+
+    /** the first slot of the set; sets differ in size by at most one so that there are exactly capacity slots */
+    private int setStart(int set) {
+        return (int) ((long) set * stamps.length() / sets);
+    }
+
+    private static boolean holds(long stamp, int node) {
+        int version = version(stamp);
+        return version != 0 && (version & 1) == 0 && node(stamp) == node;
+    }
+
+    private static int version(long stamp) {
+        return (int) (stamp >>> 32);
+    }
+
+    private static int node(long stamp) {
+        return (int) stamp;
+    }
+
+    private static long stamp(int version, int node) {
+        return ((long) version << 32) | (node & 0xFFFFFFFFL);
+    }
+}
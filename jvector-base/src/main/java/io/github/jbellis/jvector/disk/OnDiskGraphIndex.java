@@ -16,46 +16,216 @@
 
 package io.github.jbellis.jvector.disk;
 
+import io.github.jbellis.jvector.graph.GraphHierarchy;
 import io.github.jbellis.jvector.graph.GraphIndex;
+import io.github.jbellis.jvector.graph.NodeSimilarity;
 import io.github.jbellis.jvector.graph.NodesIterator;
 import io.github.jbellis.jvector.graph.OnHeapGraphIndex;
 import io.github.jbellis.jvector.graph.RandomAccessVectorValues;
+import io.github.jbellis.jvector.pq.PQCodeScorer;
+import io.github.jbellis.jvector.pq.PQVectors;
+import io.github.jbellis.jvector.pq.ProductQuantization;
 import io.github.jbellis.jvector.util.Accountable;
+import io.github.jbellis.jvector.util.AtomicFixedBitSet;
+import io.github.jbellis.jvector.util.BitSet;
 import io.github.jbellis.jvector.util.Bits;
+import io.github.jbellis.jvector.util.FixedBitSet;
+import io.github.jbellis.jvector.util.RamUsageEstimator;
+import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 
 public class OnDiskGraphIndex<T> implements GraphIndex<T>, AutoCloseable, Accountable
 {
+    /**
+     * Versioned headers start with MAGIC followed by the version.  Headers written before versioning
+     * was introduced (version 0) start with the graph size instead, which is never negative.
+     */
+    static final int MAGIC = 0xFFFF0D15;
+    /**
+     * Version 1 appends the upper levels of the graph hierarchy after the node records.
+     * Version 2 adds the entry points to the header.
+     * Version 3 optionally stores PQ codes in each node's record -- its own, and those of its neighbors --
+     * with the PQ codebooks after the hierarchy.
+     * Version 4 splits the node records into an adjacency section, holding neighbor lists (and PQ codes),
+     * followed by a section holding only the full vectors, so that traversals do not page in vectors.
+     */
+    static final int VERSION = 4;
+    /** Deleted-node files start with DELETED_MAGIC, followed by the graph size and the bitmap's words. */
+    static final int DELETED_MAGIC = 0xDE1E7ED0;
+    // the parallel writer serializes about this many bytes of node records per task
+    private static final int CHUNK_BYTES = 4 << 20;
+
     private final ReaderSupplier readerSupplier;
-    private final long neighborsOffset;
+    private final int version;
+    // In the interleaved layout (version 3 and earlier) adjacency and vectors are parts of the same record;
+    // in the separated layout each has its own section.  Either way, the data for node i starts at offset + i * stride.
+    private final long adjacencyOffset;
+    private final long adjacencyStride;
+    private final long vectorsOffset;
+    private final long vectorsStride;
     private final int size;
     private final int entryNode;
     private final int maxDegree;
     private final int dimension;
+    private final GraphHierarchy hierarchy;
+    private final int[] entryPoints;
+    // the number of bytes in each PQ code stored with the adjacency lists; 0 if there are none
+    private final int pqCodeLength;
+    private final ProductQuantization pq;
+    // nodes deleted since the graph was written; kept outside the (immutable) graph file, see saveDeletedNodes
+    private final AtomicFixedBitSet deletedNodes;
+    private final AtomicInteger deletedCount = new AtomicInteger();
 
     public OnDiskGraphIndex(ReaderSupplier readerSupplier, long offset)
     {
         this.readerSupplier = readerSupplier;
-        this.neighborsOffset = offset + 4 * Integer.BYTES;
         try (var reader = readerSupplier.get()) {
             reader.seek(offset);
-            size = reader.readInt();
+            int first = reader.readInt();
+            if (first == MAGIC) {
+                version = reader.readInt();
+                if (version > VERSION) {
+                    throw new IOException(String.format("Unsupported OnDiskGraphIndex version %d (maximum supported is %d)", version, VERSION));
+                }
+                size = reader.readInt();
+            } else if (first >= 0) {
+                version = 0;
+                size = first;
+            } else {
+                throw new IOException("Invalid OnDiskGraphIndex header " + first);
+            }
             dimension = reader.readInt();
             entryNode = reader.readInt();
             maxDegree = reader.readInt();
+            if (version >= 2) {
+                entryPoints = new int[reader.readInt()];
+                reader.read(entryPoints, 0, entryPoints.length);
+            } else {
+                entryPoints = new int[0];
+            }
+            pqCodeLength = version >= 3 ? reader.readInt() : 0;
+            long recordsOffset = offset + headerSize(version, entryPoints.length);
+            long adjacencySize = adjacencySize(maxDegree, pqCodeLength);
+            long vectorSize = (long) dimension * Float.BYTES;
+            long recordsSize;
+            if (version >= 4) {
+                recordsSize = size * (adjacencySize + vectorSize);
+                adjacencyOffset = recordsOffset;
+                adjacencyStride = adjacencySize;
+                vectorsOffset = recordsOffset + size * adjacencySize;
+                vectorsStride = vectorSize;
+            } else {
+                // [id, vector, adjacency]
+                long recordSize = Integer.BYTES + vectorSize + adjacencySize;
+                recordsSize = size * recordSize;
+                adjacencyOffset = recordsOffset + Integer.BYTES + vectorSize;
+                adjacencyStride = recordSize;
+                vectorsOffset = recordsOffset + Integer.BYTES;
+                vectorsStride = recordSize;
+            }
+
+            if (version >= 1) {
+                reader.seek(recordsOffset + recordsSize);
+                hierarchy = readHierarchy(reader);
+            } else {
+                hierarchy = GraphHierarchy.EMPTY;
+            }
+            pq = pqCodeLength > 0 ? ProductQuantization.load(reader) : null;
+            deletedNodes = new AtomicFixedBitSet(size);
         } catch (Exception e) {
             throw new RuntimeException("Error initializing OnDiskGraph at offset " + offset, e);
         }
     }
 
+    private static int headerSize(int version, int entryPointCount) {
+        int ints = version == 0 ? 4 : 6;
+        if (version >= 2) {
+            ints += 1 + entryPointCount;
+        }
+        if (version >= 3) {
+            ints += 1;
+        }
+        return ints * Integer.BYTES;
+    }
+
+    /**
+     * @return the size of a single node's adjacency: neighbor count, padded neighbors, and
+     * (if pqCodeLength &gt; 0) the node's PQ code followed by the padded PQ codes of its neighbors
+     */
+    private static long adjacencySize(int maxDegree, int pqCodeLength) {
+        return (long) Integer.BYTES * (maxDegree + 1) + pqCodesSize(maxDegree, pqCodeLength);
+    }
+
+    /** the codes are padded to a multiple of 4 bytes, to keep the following records aligned */
+    private static long pqCodesSize(int maxDegree, int pqCodeLength) {
+        long bytes = (long) (maxDegree + 1) * pqCodeLength;
+        return (bytes + Integer.BYTES - 1) / Integer.BYTES * Integer.BYTES;
+    }
+
+    private static GraphHierarchy readHierarchy(RandomAccessReader reader) throws IOException {
+        int levels = reader.readInt();
+        int entryNode = reader.readInt();
+        var levelNodes = new int[levels][];
+        var levelNeighbors = new int[levels][][];
+        for (int level = 0; level < levels; level++) {
+            int count = reader.readInt();
+            levelNodes[level] = new int[count];
+            levelNeighbors[level] = new int[count][];
+            for (int i = 0; i < count; i++) {
+                levelNodes[level][i] = reader.readInt();
+                levelNeighbors[level][i] = new int[reader.readInt()];
+                reader.read(levelNeighbors[level][i], 0, levelNeighbors[level][i].length);
+            }
+        }
+        return levels == 0 ? GraphHierarchy.EMPTY : new GraphHierarchy(entryNode, levelNodes, levelNeighbors);
+    }
+
+    private static void writeHierarchy(GraphHierarchy hierarchy, int[] oldToNewOrdinals, DataOutput out)
+            throws IOException
+    {
+        out.writeInt(hierarchy.levels());
+        out.writeInt(hierarchy.levels() == 0 ? -1 : oldToNewOrdinals[hierarchy.entryNode()]);
+        for (int level = 1; level <= hierarchy.levels(); level++) {
+            // renumbering can change the order of the nodes, which must be sorted by (new) id
+            int[] nodes = hierarchy.nodes(level);
+            var newNodes = Arrays.stream(nodes).map(i -> oldToNewOrdinals[i]).toArray();
+            var order = IntStream.range(0, nodes.length).boxed()
+                    .sorted(Comparator.comparingInt(i -> newNodes[i]))
+                    .mapToInt(i -> i)
+                    .toArray();
+            out.writeInt(nodes.length);
+            for (int i : order) {
+                out.writeInt(newNodes[i]);
+                int[] neighbors = hierarchy.neighbors(level, nodes[i]);
+                out.writeInt(neighbors.length);
+                for (int neighbor : neighbors) {
+                    out.writeInt(oldToNewOrdinals[neighbor]);
+                }
+            }
+        }
+    }
+
     /**
      * @return a Map of old to new graph ordinals where the new ordinals are sequential starting at 0,
      * while preserving the original relative ordering in `graph`.  That is, for all node ids i and j,
@@ -76,6 +246,115 @@ public class OnDiskGraphIndex<T> implements GraphIndex<T>, AutoCloseable, Accoun
         }
     }
 
+    /**
+     * @return a Map of old to new graph ordinals that numbers the nodes in breadth-first order from the
+     * entry node, so that a node's neighbors tend to be numbered close to it and to each other.  On disk,
+     * that puts the nodes a search expands together on the same or adjacent pages.  Nodes not reachable
+     * from the entry node are numbered afterwards, starting a new traversal from each one in ordinal order.
+     */
+    public static <T> Map<Integer, Integer> getBreadthFirstRenumbering(GraphIndex<T> graph) {
+        try (var view = graph.getView()) {
+            int[] starts = liveNodes(graph, view);
+            return toRenumbering(traversalOrder(graph, view, view.entryNode(), starts, null));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return a Map of old to new graph ordinals in reverse Cuthill-McKee order: a breadth-first traversal
+     * starting from a node of minimum degree, that visits each node's neighbors in increasing order of
+     * degree, reversed.  This tends to minimize the distance between the ordinals of adjacent nodes
+     * (the bandwidth of the adjacency matrix) even better than a plain breadth-first order.
+     */
+    public static <T> Map<Integer, Integer> getReverseCuthillMcKeeRenumbering(GraphIndex<T> graph) {
+        try (var view = graph.getView()) {
+            int[] nodes = liveNodes(graph, view);
+            var degrees = new int[view.getIdUpperBound()];
+            for (int node : nodes) {
+                degrees[node] = view.getNeighborsIterator(node).size();
+            }
+            // start each traversal from the lowest-degree node not yet visited
+            int[] starts = IntStream.of(nodes).boxed()
+                    .sorted(Comparator.comparingInt(n -> degrees[n]))
+                    .mapToInt(i -> i)
+                    .toArray();
+            int[] order = traversalOrder(graph, view, -1, starts, degrees);
+            for (int i = 0, j = order.length - 1; i < j; i++, j--) {
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+            return toRenumbering(order);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static <T> int[] liveNodes(GraphIndex<T> graph, GraphIndex.View<T> view) {
+        return IntStream.range(0, view.getIdUpperBound()).filter(graph::containsNode).toArray();
+    }
+
+    /**
+     * @param first the node to start the first traversal from, or -1 to start from starts[0]
+     * @param starts the nodes to start subsequent traversals from, in order; must include every live node
+     * @param degrees if not null, the neighbors of each node are visited in increasing order of degree
+     * @return the live nodes, in the order they are first reached by breadth-first traversals
+     */
+    private static <T> int[] traversalOrder(GraphIndex<T> graph, GraphIndex.View<T> view, int first, int[] starts, int[] degrees) {
+        var order = new int[starts.length];
+        var visited = new FixedBitSet(view.getIdUpperBound());
+        int head = 0;
+        int tail = 0;
+        int nextStart = 0;
+        if (first >= 0) {
+            order[tail++] = first;
+            visited.set(first);
+        }
+        // order doubles as the BFS queue: [head, tail) are the nodes reached but not yet expanded
+        while (tail < order.length) {
+            if (head == tail) {
+                while (visited.get(starts[nextStart])) {
+                    nextStart++;
+                }
+                order[tail++] = starts[nextStart];
+                visited.set(starts[nextStart]);
+            }
+            int node = order[head++];
+            var it = view.getNeighborsIterator(node);
+            var neighbors = new int[it.size()];
+            int n = 0;
+            while (it.hasNext()) {
+                int neighbor = it.nextInt();
+                if (graph.containsNode(neighbor)) {
+                    neighbors[n++] = neighbor;
+                }
+            }
+            if (degrees != null) {
+                neighbors = IntStream.of(neighbors).limit(n).boxed()
+                        .sorted(Comparator.comparingInt(i -> degrees[i]))
+                        .mapToInt(i -> i)
+                        .toArray();
+            } else {
+                neighbors = Arrays.copyOf(neighbors, n);
+            }
+            for (int neighbor : neighbors) {
+                if (!visited.getAndSet(neighbor)) {
+                    order[tail++] = neighbor;
+                }
+            }
+        }
+        return order;
+    }
+
+    private static Map<Integer, Integer> toRenumbering(int[] order) {
+        Map<Integer, Integer> oldToNewMap = new HashMap<>();
+        for (int i = 0; i < order.length; i++) {
+            oldToNewMap.put(order[i], i);
+        }
+        return oldToNewMap;
+    }
+
     @Override
     public int size() {
         return size;
@@ -86,6 +365,80 @@ public class OnDiskGraphIndex<T> implements GraphIndex<T>, AutoCloseable, Accoun
         return maxDegree;
     }
 
+    /**
+     * @return the dimension of the vectors
+     */
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * Marks the node deleted: it stays in the graph, so searches still traverse it, but views no longer
+     * report it as live, so it is not returned as a result.  Deletions are kept in memory until saved
+     * with {@link #saveDeletedNodes}.  Threadsafe.
+     */
+    public void markDeleted(int node) {
+        if (node < 0 || node >= size) {
+            throw new IllegalArgumentException(String.format("Node %d is not in the graph of size %d", node, size));
+        }
+        if (!deletedNodes.getAndSet(node)) {
+            deletedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the nodes marked deleted
+     */
+    public BitSet getDeletedNodes() {
+        return deletedNodes;
+    }
+
+    /**
+     * Writes the deleted nodes to a file of their own, next to the graph.  This costs one bit per node,
+     * instead of rewriting the graph.  The file is replaced atomically, so a concurrent reader (or a crash)
+     * sees either the previous deletions or the new ones.
+     */
+    public void saveDeletedNodes(Path path) throws IOException {
+        var tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+            out.writeInt(DELETED_MAGIC);
+            out.writeInt(size);
+            for (int i = 0; i < size; i += Long.SIZE) {
+                long word = 0;
+                for (int j = i; j < Math.min(i + Long.SIZE, size); j++) {
+                    if (deletedNodes.get(j)) {
+                        word |= 1L << (j - i);
+                    }
+                }
+                out.writeLong(word);
+            }
+        }
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Marks deleted the nodes in a file written by {@link #saveDeletedNodes}, in addition to any already marked.
+     */
+    public void loadDeletedNodes(Path path) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int magic = in.readInt();
+            if (magic != DELETED_MAGIC) {
+                throw new IOException("Invalid deleted nodes header " + magic);
+            }
+            int fileSize = in.readInt();
+            if (fileSize != size) {
+                throw new IOException(String.format("Deleted nodes are for a graph of size %d, not %d", fileSize, size));
+            }
+            for (int i = 0; i < size; i += Long.SIZE) {
+                long word = in.readLong();
+                while (word != 0) {
+                    markDeleted(i + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
     /** return a Graph that can be safely queried concurrently */
     public OnDiskGraphIndex<T>.OnDiskView getView()
     {
@@ -105,13 +458,101 @@ public class OnDiskGraphIndex<T> implements GraphIndex<T>, AutoCloseable, Accoun
             this.neighbors = new int[maxDegree];
         }
 
+        /**
+         * @return a ScoreFunction computing approximate similarities to the query from the PQ codes stored
+         * with the adjacency lists.  It supports edge-loading similarity: all the neighbors of a node are scored
+         * from the codes stored next to its edges, without reading the neighbors' adjacency lists.
+         * Like the view, the ScoreFunction is not threadsafe.
+         *
+         * @throws UnsupportedOperationException if the graph was written without PQ codes
+         */
+        public NodeSimilarity.ApproximateScoreFunction approximateScoreFunctionFor(float[] query, VectorSimilarityFunction similarityFunction) {
+            if (pq == null) {
+                throw new UnsupportedOperationException("This graph was written without PQ codes");
+            }
+            return new FusedPQScoreFunction(new PQCodeScorer(pq, query, similarityFunction));
+        }
+
+        /**
+         * @return a ReRanker computing exact similarities to the query from the vectors on disk.  Unlike
+         * scoring the result of getVector, it allocates nothing per node: each vector is bulk-copied into
+         * a scratch buffer owned by the ReRanker.  Like the view, the ReRanker is not threadsafe.
+         */
+        public NodeSimilarity.ReRanker rerankerFor(float[] query, VectorSimilarityFunction similarityFunction) {
+            float[] scratch = new float[dimension];
+            return node -> {
+                try {
+                    reader.seek(vectorOffset(node));
+                    reader.readFully(scratch);
+                    return similarityFunction.compare(query, scratch);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+        }
+
+        private long vectorOffset(int node) {
+            return vectorsOffset + node * vectorsStride;
+        }
+
+        private long neighborCountOffset(int node) {
+            return adjacencyOffset + node * adjacencyStride;
+        }
+
+        private long pqCodesOffset(int node) {
+            return neighborCountOffset(node) + (long) Integer.BYTES * (maxDegree + 1);
+        }
+
+        private class FusedPQScoreFunction implements NodeSimilarity.ApproximateScoreFunction {
+            private final PQCodeScorer scorer;
+            private final byte[] code = new byte[pqCodeLength];
+            private final byte[] edgeCodes = new byte[maxDegree * pqCodeLength];
+            private final float[] edgeScores = new float[maxDegree];
+
+            private FusedPQScoreFunction(PQCodeScorer scorer) {
+                this.scorer = scorer;
+            }
+
+            @Override
+            public float similarityTo(int node2) {
+                try {
+                    reader.seek(pqCodesOffset(node2));
+                    reader.readFully(code);
+                    return scorer.similarityTo(code, 0);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public boolean supportsEdgeLoadingSimilarity() {
+                return true;
+            }
+
+            @Override
+            public float[] edgeLoadingSimilarityTo(int origin) {
+                try {
+                    reader.seek(neighborCountOffset(origin));
+                    int neighborCount = reader.readInt();
+                    reader.seek(pqCodesOffset(origin) + pqCodeLength);
+                    reader.readFully(edgeCodes);
+                    for (int i = 0; i < neighborCount; i++) {
+                        edgeScores[i] = scorer.similarityTo(edgeCodes, i * pqCodeLength);
+                    }
+                    return edgeScores;
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
         public T getVector(int node) {
             try {
-                long offset = neighborsOffset +
-                        node * (Integer.BYTES + (long) dimension * Float.BYTES + (long) Integer.BYTES * (maxDegree + 1)) // earlier entries
-                        + Integer.BYTES; // skip the ID
                 float[] vector = new float[dimension];
-                reader.seek(offset);
+                reader.seek(vectorOffset(node));
                 reader.readFully(vector);
                 return (T) vector;
             }
@@ -122,9 +563,7 @@ public class OnDiskGraphIndex<T> implements GraphIndex<T>, AutoCloseable, Accoun
 
         public NodesIterator getNeighborsIterator(int node) {
             try {
-                reader.seek(neighborsOffset +
-                        (node + 1) * (Integer.BYTES + (long) dimension * Float.BYTES) +
-                        (node * (long) Integer.BYTES * (maxDegree + 1)));
+                reader.seek(neighborCountOffset(node));
                 int neighborCount = reader.readInt();
                 assert neighborCount <= maxDegree : String.format("neighborCount %d > M %d", neighborCount, maxDegree);
                 reader.read(neighbors, 0, neighborCount);
@@ -145,9 +584,24 @@ public class OnDiskGraphIndex<T> implements GraphIndex<T>, AutoCloseable, Accoun
             return OnDiskGraphIndex.this.entryNode;
         }
 
+        @Override
+        public GraphHierarchy hierarchy() {
+            return hierarchy;
+        }
+
+        @Override
+        public int[] entryPoints() {
+            return entryPoints;
+        }
+
+        @Override
+        public void prefetch(int node) {
+            reader.prefetch(neighborCountOffset(node), (int) adjacencySize(maxDegree, pqCodeLength));
+        }
+
         @Override
         public Bits liveNodes() {
-            return Bits.ALL;
+            return deletedCount.get() == 0 ? Bits.ALL : Bits.inverseOf(deletedNodes);
         }
 
         @Override
@@ -164,7 +618,8 @@ public class OnDiskGraphIndex<T> implements GraphIndex<T>, AutoCloseable, Accoun
 
     @Override
     public long ramBytesUsed() {
-        return Long.BYTES + 4 * Integer.BYTES;
+        return 4 * Long.BYTES + 6 * Integer.BYTES + RamUsageEstimator.sizeOf(entryPoints) + hierarchy.ramBytesUsed()
+               + (pq == null ? 0 : pq.memorySize()) + deletedNodes.ramBytesUsed();
     }
 
     public void close() throws IOException {
@@ -205,58 +660,286 @@ public class OnDiskGraphIndex<T> implements GraphIndex<T>, AutoCloseable, Accoun
                                  DataOutput out)
             throws IOException
     {
+        write(graph, vectors, null, oldToNewOrdinals, out);
+    }
+
+    /**
+     * Writes the graph with the PQ code of each node stored in its record, followed by the codes of its
+     * neighbors.  Searches using {@code OnDiskView.approximateScoreFunctionFor} can then score all the
+     * neighbors of a node from the same page as its edges.
+     *
+     * @param graph the graph to write
+     * @param vectors the vectors associated with each node
+     * @param pqVectors the PQ-encoded vectors associated with each node (by its ordinal in `graph`),
+     *                  or null to omit them
+     * @param oldToNewOrdinals A map from old to new ordinals. If ordinal numbering does not matter,
+     *                         you can use `getSequentialRenumbering`, which will "fill in" holes left by
+     *                         any deleted nodes.
+     * @param out the output to write to
+     */
+    public static <T> void write(GraphIndex<T> graph,
+                                 RandomAccessVectorValues<T> vectors,
+                                 PQVectors pqVectors,
+                                 Map<Integer, Integer> oldToNewOrdinals,
+                                 DataOutput out)
+            throws IOException
+    {
+        if (oldToNewOrdinals.size() != graph.size()) {
+            throw new IllegalArgumentException(String.format("ordinalMapper size %d does not match graph size %d",
+                                                             oldToNewOrdinals.size(), graph.size()));
+        }
+        var ordinals = toOrdinalArray(oldToNewOrdinals);
+        int[] newToOld = invert(graph, ordinals);
+
+        try (var view = graph.getView()) {
+            int pqCodeLength = pqVectors == null ? 0 : pqVectors.getCompressedSize();
+            out.write(header(graph, view, vectors.dimension(), pqCodeLength, ordinals).array());
+
+            // adjacency section: for each graph node, write its neighbors (and their PQ codes)
+            var adjacency = ByteBuffer.allocate((int) adjacencySize(graph.maxDegree(), pqCodeLength));
+            var scratch = new int[graph.maxDegree()];
+            for (int originalOrdinal : newToOld) {
+                adjacency.clear();
+                writeAdjacency(view, originalOrdinal, ordinals, graph.maxDegree(), pqVectors, scratch, adjacency);
+                out.write(adjacency.array());
+            }
+
+            // vector section: for each graph node, write the associated vector
+            for (int originalOrdinal : newToOld) {
+                Io.writeFloats(out, (float[]) vectors.vectorValue(originalOrdinal));
+            }
+
+            out.write(footer(view.hierarchy(), pqVectors, ordinals).array());
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Writes the graph to a new file at `path`, in the same format as the DataOutput overloads.
+     * <p>
+     * The node records are fixed-size, so each one's position in the file is known up front: this
+     * serializes them in parallel on the common ForkJoinPool, in chunks that are each written with
+     * positional writes.  The graph and vectors must therefore be safe to read from multiple threads
+     * (vectors are copied per chunk if their values are shared).
+     *
+     * @param graph the graph to write
+     * @param vectors the vectors associated with each node
+     * @param pqVectors the PQ-encoded vectors associated with each node (by its ordinal in `graph`),
+     *                  or null to omit them
+     * @param oldToNewOrdinals the new ordinal of each node, indexed by its ordinal in `graph`, with -1 for
+     *                         ordinals that are not in the graph.  See {@link #toOrdinalArray}.
+     * @param path the file to write
+     */
+    public static <T> void write(GraphIndex<T> graph,
+                                 RandomAccessVectorValues<T> vectors,
+                                 PQVectors pqVectors,
+                                 int[] oldToNewOrdinals,
+                                 Path path)
+            throws IOException
+    {
+        write(graph, vectors, pqVectors, oldToNewOrdinals, path, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * As above, serializing the records on the given pool.
+     */
+    public static <T> void write(GraphIndex<T> graph,
+                                 RandomAccessVectorValues<T> vectors,
+                                 PQVectors pqVectors,
+                                 int[] oldToNewOrdinals,
+                                 Path path,
+                                 ForkJoinPool executor)
+            throws IOException
+    {
+        write(graph, vectors, pqVectors, oldToNewOrdinals, path, executor, CHUNK_BYTES);
+    }
+
+    /**
+     * @param chunkBytes the approximate number of bytes of node records to serialize per task
+     */
+    static <T> void write(GraphIndex<T> graph,
+                          RandomAccessVectorValues<T> vectors,
+                          PQVectors pqVectors,
+                          int[] oldToNewOrdinals,
+                          Path path,
+                          ForkJoinPool executor,
+                          int chunkBytes)
+            throws IOException
+    {
+        int[] newToOld = invert(graph, oldToNewOrdinals);
+        int pqCodeLength = pqVectors == null ? 0 : pqVectors.getCompressedSize();
+        int maxDegree = graph.maxDegree();
+        int adjacencySize = (int) adjacencySize(maxDegree, pqCodeLength);
+        int vectorSize = vectors.dimension() * Float.BYTES;
+        int chunkNodes = Math.max(1, chunkBytes / (adjacencySize + vectorSize));
+        int chunks = (newToOld.length + chunkNodes - 1) / chunkNodes;
+
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             var view = graph.getView())
+        {
+            var header = header(graph, view, vectors.dimension(), pqCodeLength, oldToNewOrdinals);
+            long adjacencyOffset = header.limit();
+            long vectorsOffset = adjacencyOffset + (long) newToOld.length * adjacencySize;
+            long footerOffset = vectorsOffset + (long) newToOld.length * vectorSize;
+
+            executor.submit(() -> IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                int start = chunk * chunkNodes;
+                int end = Math.min(start + chunkNodes, newToOld.length);
+                var adjacency = ByteBuffer.allocate((end - start) * adjacencySize);
+                var vectorBytes = ByteBuffer.allocate((end - start) * vectorSize);
+                var floats = vectorBytes.asFloatBuffer();
+                var scratch = new int[maxDegree];
+                var chunkVectors = vectors.isValueShared() ? vectors.copy() : vectors;
+                try (var chunkView = graph.getView()) {
+                    for (int i = start; i < end; i++) {
+                        writeAdjacency(chunkView, newToOld[i], oldToNewOrdinals, maxDegree, pqVectors, scratch, adjacency);
+                        floats.put((float[]) chunkVectors.vectorValue(newToOld[i]));
+                    }
+                    writeFully(channel, adjacency.flip(), adjacencyOffset + (long) start * adjacencySize);
+                    // the float view filled the whole buffer without moving its position
+                    writeFully(channel, vectorBytes, vectorsOffset + (long) start * vectorSize);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            })).join();
+
+            writeFully(channel, header, 0);
+            writeFully(channel, footer(view.hierarchy(), pqVectors, oldToNewOrdinals), footerOffset);
+        } catch (IOException e) {
+            throw e;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @return the given map of old to new ordinals as an array indexed by old ordinal, with -1 for
+     * ordinals that are not in the map
+     */
+    public static int[] toOrdinalArray(Map<Integer, Integer> oldToNewOrdinals) {
+        int length = oldToNewOrdinals.keySet().stream().mapToInt(i -> i + 1).max().orElse(0);
+        var ordinals = new int[length];
+        Arrays.fill(ordinals, -1);
+        oldToNewOrdinals.forEach((oldOrdinal, newOrdinal) -> ordinals[oldOrdinal] = newOrdinal);
+        return ordinals;
+    }
+
+    /**
+     * @return the old ordinal of each new ordinal, after checking that oldToNewOrdinals maps the graph's
+     * nodes onto [0, size)
+     */
+    private static <T> int[] invert(GraphIndex<T> graph, int[] oldToNewOrdinals) {
         if (graph instanceof OnHeapGraphIndex) {
             var ohgi = (OnHeapGraphIndex<T>) graph;
             if (ohgi.getDeletedNodes().cardinality() > 0) {
                 throw new IllegalArgumentException("Run builder.cleanup() before writing the graph");
             }
         }
-        if (oldToNewOrdinals.size() != graph.size()) {
+        var newToOld = new int[graph.size()];
+        Arrays.fill(newToOld, -1);
+        int mapped = 0;
+        for (int oldOrdinal = 0; oldOrdinal < oldToNewOrdinals.length; oldOrdinal++) {
+            int newOrdinal = oldToNewOrdinals[oldOrdinal];
+            if (newOrdinal < 0) {
+                continue;
+            }
+            if (newOrdinal >= newToOld.length || newToOld[newOrdinal] >= 0) {
+                throw new IllegalArgumentException("oldToNewOrdinals produced out-of-range entries");
+            }
+            if (!graph.containsNode(oldOrdinal)) {
+                throw new IllegalArgumentException(String.format("oldToNewOrdinals maps %d, which is not in the graph", oldOrdinal));
+            }
+            newToOld[newOrdinal] = oldOrdinal;
+            mapped++;
+        }
+        if (mapped != graph.size()) {
             throw new IllegalArgumentException(String.format("ordinalMapper size %d does not match graph size %d",
-                                                             oldToNewOrdinals.size(), graph.size()));
+                                                             mapped, graph.size()));
         }
+        return newToOld;
+    }
 
-        var entriesByNewOrdinal = new ArrayList<>(oldToNewOrdinals.entrySet());
-        entriesByNewOrdinal.sort(Comparator.comparingInt(Map.Entry::getValue));
-        // the last new ordinal should be size-1
-        if (graph.size() > 0 && entriesByNewOrdinal.get(entriesByNewOrdinal.size() - 1).getValue() != graph.size() - 1) {
-            throw new IllegalArgumentException("oldToNewOrdinals produced out-of-range entries");
+    private static <T> ByteBuffer header(GraphIndex<T> graph, GraphIndex.View<T> view, int dimension, int pqCodeLength, int[] oldToNewOrdinals) {
+        var entryPoints = view.entryPoints();
+        var header = ByteBuffer.allocate(headerSize(VERSION, entryPoints.length));
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(graph.size());
+        header.putInt(dimension);
+        header.putInt(view.entryNode() < 0 ? -1 : oldToNewOrdinals[view.entryNode()]);
+        header.putInt(graph.maxDegree());
+        header.putInt(entryPoints.length);
+        for (int entryPoint : entryPoints) {
+            header.putInt(oldToNewOrdinals[entryPoint]);
         }
+        header.putInt(pqCodeLength);
+        return header.flip();
+    }
 
-        try (var view = graph.getView()) {
-            // graph-level properties
-            out.writeInt(graph.size());
-            out.writeInt(vectors.dimension());
-            out.writeInt(view.entryNode());
-            out.writeInt(graph.maxDegree());
-
-            // for each graph node, write the associated vector and its neighbors
-            for (int i = 0; i < oldToNewOrdinals.size(); i++) {
-                var entry = entriesByNewOrdinal.get(i);
-                int originalOrdinal = entry.getKey();
-                int newOrdinal = entry.getValue();
-                if (!graph.containsNode(originalOrdinal)) {
-                    continue;
-                }
-
-                out.writeInt(newOrdinal); // unnecessary, but a reasonable sanity check
-                Io.writeFloats(out, (float[]) vectors.vectorValue(originalOrdinal));
+    /**
+     * Appends a node's adjacency record: its neighbor count, its (renumbered) neighbors padded to maxDegree,
+     * and optionally its PQ code followed by those of its neighbors.
+     *
+     * @param scratch holds the node's original neighbor ordinals; at least maxDegree long
+     */
+    private static <T> void writeAdjacency(GraphIndex.View<T> view,
+                                           int originalOrdinal,
+                                           int[] oldToNewOrdinals,
+                                           int maxDegree,
+                                           PQVectors pqVectors,
+                                           int[] scratch,
+                                           ByteBuffer out)
+    {
+        var neighbors = view.getNeighborsIterator(originalOrdinal);
+        int neighborCount = neighbors.size();
+        out.putInt(neighborCount);
+        int n = 0;
+        for (; n < neighborCount; n++) {
+            scratch[n] = neighbors.nextInt();
+            out.putInt(oldToNewOrdinals[scratch[n]]);
+        }
+        assert !neighbors.hasNext();
 
-                var neighbors = view.getNeighborsIterator(originalOrdinal);
-                out.writeInt(neighbors.size());
-                int n = 0;
-                for (; n < neighbors.size(); n++) {
-                    out.writeInt(oldToNewOrdinals.get(neighbors.nextInt()));
-                }
-                assert !neighbors.hasNext();
+        // pad out to maxEdgesPerNode
+        for (; n < maxDegree; n++) {
+            out.putInt(-1);
+        }
 
-                // pad out to maxEdgesPerNode
-                for (; n < graph.maxDegree(); n++) {
-                    out.writeInt(-1);
-                }
+        if (pqVectors != null) {
+            int pqCodeLength = pqVectors.getCompressedSize();
+            out.put(pqVectors.get(originalOrdinal));
+            for (n = 0; n < neighborCount; n++) {
+                out.put(pqVectors.get(scratch[n]));
             }
-        } catch (Exception e) {
-            throw new IOException(e);
+            long padding = pqCodesSize(maxDegree, pqCodeLength) - (long) (neighborCount + 1) * pqCodeLength;
+            for (long p = 0; p < padding; p++) {
+                out.put((byte) 0);
+            }
+        }
+    }
+
+    /**
+     * @return the hierarchy and PQ codebooks that follow the vector section
+     */
+    private static ByteBuffer footer(GraphHierarchy hierarchy, PQVectors pqVectors, int[] oldToNewOrdinals) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        writeHierarchy(hierarchy, oldToNewOrdinals, out);
+        if (pqVectors != null) {
+            pqVectors.getProductQuantization().write(out);
+        }
+        out.flush();
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
         }
     }
 }
@@ -35,5 +35,12 @@ public interface RandomAccessReader extends AutoCloseable {
 
     void read(int[] ints, int offset, int count) throws IOException;
 
+    /**
+     * Hints that the given range is likely to be read soon.  Must not block, and does not move
+     * the current position.  The default does nothing.
+     */
+    default void prefetch(long offset, int length) {
+    }
+
     void close() throws IOException;
 }
@@ -0,0 +1,364 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.disk;
+
+import io.github.jbellis.jvector.graph.GraphIndexBuilder;
+import io.github.jbellis.jvector.graph.GraphSearcher;
+import io.github.jbellis.jvector.graph.ListRandomAccessVectorValues;
+import io.github.jbellis.jvector.graph.NodeSimilarity;
+import io.github.jbellis.jvector.graph.SearchResult;
+import io.github.jbellis.jvector.util.Accountable;
+import io.github.jbellis.jvector.util.Bits;
+import io.github.jbellis.jvector.util.PoolingSupport;
+import io.github.jbellis.jvector.util.RamUsageEstimator;
+import io.github.jbellis.jvector.vector.VectorEncoding;
+import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * An append-only index that supports continuous inserts without rebuilding what is already persisted.
+ * <p>
+ * New vectors are added to an in-memory segment, built with a {@link GraphIndexBuilder}.  When it holds
+ * maxSegmentSize vectors (or on {@link #flush}) it is written to the directory as an immutable
+ * {@link OnDiskGraphIndex} segment, and a new in-memory segment is started.  Searches fan out to every
+ * segment and merge their results.  Opening a directory that already holds segments resumes from them.
+ * <p>
+ * Each vector is identified by its ordinal across the whole index, assigned in insertion order.  Segment
+ * files are named after the ordinal of their first vector, so the segments of a directory cover a
+ * contiguous range of ordinals.
+ * <p>
+ * Searches may run concurrently with inserts and with each other; inserts are serialized.
+ */
+public class SegmentedGraphIndex implements AutoCloseable, Accountable {
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)");
+
+    private final Path directory;
+    private final int dimension;
+    private final VectorSimilarityFunction similarityFunction;
+    private final int maxSegmentSize;
+    private final int M;
+    private final int beamWidth;
+    private final float neighborOverflow;
+    private final float alpha;
+
+    // replaced as a whole when a segment is flushed, so that searches see a consistent set of segments
+    private volatile Segments segments;
+
+    /**
+     * @param directory        where segments are written; existing segments there are opened
+     * @param dimension        the dimension of the vectors
+     * @param maxSegmentSize   the number of vectors in the in-memory segment that triggers a flush
+     * @param M                the maximum number of connections a node can have, as for GraphIndexBuilder
+     * @param beamWidth        the size of the beam search to use when finding nearest neighbors
+     * @param neighborOverflow the ratio of extra neighbors to allow temporarily when inserting a node
+     * @param alpha            how aggressive pruning diverse neighbors should be
+     */
+    public SegmentedGraphIndex(Path directory,
+                               int dimension,
+                               VectorSimilarityFunction similarityFunction,
+                               int maxSegmentSize,
+                               int M,
+                               int beamWidth,
+                               float neighborOverflow,
+                               float alpha)
+            throws IOException
+    {
+        if (maxSegmentSize <= 0) {
+            throw new IllegalArgumentException("maxSegmentSize must be positive, got " + maxSegmentSize);
+        }
+        this.directory = directory;
+        this.dimension = dimension;
+        this.similarityFunction = similarityFunction;
+        this.maxSegmentSize = maxSegmentSize;
+        this.M = M;
+        this.beamWidth = beamWidth;
+        this.neighborOverflow = neighborOverflow;
+        this.alpha = alpha;
+
+        Files.createDirectories(directory);
+        var flushed = new ArrayList<DiskSegment>();
+        try {
+            int nextBase = 0;
+            for (var path : segmentFiles(directory)) {
+                int base = segmentBase(path);
+                if (base != nextBase) {
+                    throw new IOException(String.format("Segment %s does not follow the previous segment, which ends at %d", path, nextBase));
+                }
+                var segment = new DiskSegment(path, base);
+                flushed.add(segment);
+                if (segment.graph.dimension() != dimension) {
+                    throw new IOException(String.format("Segment %s has dimension %d, expected %d", path, segment.graph.dimension(), dimension));
+                }
+                nextBase += segment.graph.size();
+            }
+            segments = new Segments(flushed, newMemorySegment(nextBase));
+        } catch (IOException | RuntimeException e) {
+            for (var segment : flushed) {
+                segment.close();
+            }
+            throw e;
+        }
+    }
+
+    private static List<Path> segmentFiles(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(p -> SEGMENT_NAME.matcher(p.getFileName().toString()).matches())
+                        .sorted(Comparator.comparingInt(SegmentedGraphIndex::segmentBase))
+                        .collect(Collectors.toList());
+        }
+    }
+
+    private static int segmentBase(Path path) {
+        var matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Not a segment file: " + path);
+        }
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    private MemorySegment newMemorySegment(int base) {
+        return new MemorySegment(base, new float[maxSegmentSize][]);
+    }
+
+    /**
+     * Adds a vector to the in-memory segment, flushing it if it is full.
+     *
+     * @return the ordinal of the vector in the index
+     */
+    public synchronized int add(float[] vector) throws IOException {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException(String.format("Vector has dimension %d, expected %d", vector.length, dimension));
+        }
+        var segment = segments.memory;
+        int node = segment.size;
+        // the vector must be in place before the builder reads it
+        segment.vectors[node] = vector;
+        segment.builder.addGraphNode(node, segment.ravv);
+        segment.size = node + 1;
+        if (segment.size == maxSegmentSize) {
+            flush();
+        }
+        return segment.base + node;
+    }
+
+    /**
+     * Writes the vectors in the in-memory segment, if any, to a new on-disk segment.
+     */
+    public synchronized void flush() throws IOException {
+        var current = segments;
+        var memory = current.memory;
+        if (memory.size == 0) {
+            return;
+        }
+
+        memory.builder.cleanup();
+        // write to a temporary file first, so that a partially written segment is never opened
+        var path = directory.resolve(String.format("segment-%010d", memory.base));
+        var tmpPath = directory.resolve(path.getFileName() + ".tmp");
+        int[] ordinals = IntStream.range(0, memory.size).toArray();
+        OnDiskGraphIndex.write(memory.builder.getGraph(), memory.ravv, null, ordinals, tmpPath);
+        Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE);
+
+        var flushed = new ArrayList<>(current.disk);
+        flushed.add(new DiskSegment(path, memory.base));
+        segments = new Segments(flushed, newMemorySegment(memory.base + memory.size));
+    }
+
+    /**
+     * @param query      the query vector
+     * @param topK       the number of results to return
+     * @param acceptOrds a Bits instance, indexed by ordinal in the index, indicating which vectors are
+     *                   acceptable results.  If {@link Bits#ALL}, all vectors are acceptable.
+     * @return the topK results across all segments, with nodes identified by their ordinal in the index,
+     * and the total number of nodes visited in all segments.  The result does not track the visited nodes.
+     */
+    public SearchResult search(float[] query, int topK, Bits acceptOrds) {
+        var current = segments;
+        var results = new ArrayList<SearchResult.NodeScore>();
+        int visitedCount = 0;
+        for (var segment : current.disk) {
+            try (var pooled = segment.searchers.get()) {
+                var segmentSearcher = pooled.get();
+                var reranker = segmentSearcher.view.rerankerFor(query, similarityFunction);
+                NodeSimilarity.ExactScoreFunction sf = reranker::similarityTo;
+                var result = segmentSearcher.searcher.search(sf, null, topK, segmentBits(acceptOrds, segment.base, segment.graph.size()));
+                visitedCount += result.getVisitedCount();
+                addResults(result, segment.base, results);
+            }
+        }
+
+        var memory = current.memory;
+        int size = memory.size;
+        if (size > 0) {
+            var result = GraphSearcher.search(query, topK, memory.ravv, VectorEncoding.FLOAT32, similarityFunction,
+                                              memory.builder.getGraph(), segmentBits(acceptOrds, memory.base, size));
+            visitedCount += result.getVisitedCount();
+            addResults(result, memory.base, results);
+        }
+
+        var nodes = results.stream()
+                .sorted(Comparator.comparingDouble((SearchResult.NodeScore ns) -> ns.score).reversed())
+                .limit(topK)
+                .toArray(SearchResult.NodeScore[]::new);
+        return new SearchResult(nodes, null, visitedCount);
+    }
+
+    private static void addResults(SearchResult result, int base, List<SearchResult.NodeScore> results) {
+        for (var ns : result.getNodes()) {
+            results.add(new SearchResult.NodeScore(base + ns.node, ns.score));
+        }
+    }
+
+    /**
+     * @return acceptOrds translated to the ordinals of the segment starting at base
+     */
+    private static Bits segmentBits(Bits acceptOrds, int base, int size) {
+        if (acceptOrds instanceof Bits.MatchAllBits) {
+            return acceptOrds;
+        }
+        return new Bits() {
+            @Override
+            public boolean get(int index) {
+                return acceptOrds.get(base + index);
+            }
+
+            @Override
+            public int length() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * @return the number of vectors in the index, including those not yet flushed
+     */
+    public int size() {
+        var current = segments;
+        return current.memory.base + current.memory.size;
+    }
+
+    /**
+     * @return the number of on-disk segments
+     */
+    public int segmentCount() {
+        return segments.disk.size();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        var current = segments;
+        long total = current.disk.stream().mapToLong(s -> s.graph.ramBytesUsed()).sum();
+        var memory = current.memory;
+        int size = memory.size;
+        long vectorBytes = RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) dimension * Float.BYTES;
+        return total
+               + memory.builder.getGraph().ramBytesUsed()
+               + RamUsageEstimator.shallowSizeOf(memory.vectors)
+               + size * vectorBytes;
+    }
+
+    /**
+     * Flushes the in-memory segment and closes the on-disk segments.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        for (var segment : segments.disk) {
+            segment.close();
+        }
+    }
+
+    private static final class Segments {
+        final List<DiskSegment> disk;
+        final MemorySegment memory;
+
+        Segments(List<DiskSegment> disk, MemorySegment memory) {
+            this.disk = List.copyOf(disk);
+            this.memory = memory;
+        }
+    }
+
+    private static final class DiskSegment implements AutoCloseable {
+        // the index ordinal of the segment's node 0
+        final int base;
+        final OnDiskGraphIndex<float[]> graph;
+        // a searcher over its own view for each thread that searches the segment, so that queries
+        // do not open a view and allocate a searcher's scratch state per segment
+        final PoolingSupport<SegmentSearcher> searchers;
+        // every view the searchers were given, to close with the segment
+        private final Queue<OnDiskGraphIndex<float[]>.OnDiskView> views = new ConcurrentLinkedQueue<>();
+
+        DiskSegment(Path path, int base) throws IOException {
+            this.base = base;
+            this.graph = new OnDiskGraphIndex<>(new MultiSegmentMappedReaderSupplier(path), 0);
+            this.searchers = PoolingSupport.newThreadBased(() -> {
+                var view = graph.getView();
+                views.add(view);
+                return new SegmentSearcher(view);
+            });
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (var view : views) {
+                view.close();
+            }
+            graph.close();
+        }
+    }
+
+    private static final class SegmentSearcher {
+        final OnDiskGraphIndex<float[]>.OnDiskView view;
+        final GraphSearcher<float[]> searcher;
+
+        SegmentSearcher(OnDiskGraphIndex<float[]>.OnDiskView view) {
+            this.view = view;
+            this.searcher = new GraphSearcher.Builder<>(view).build();
+        }
+    }
+
+    private final class MemorySegment {
+        // the index ordinal of the segment's node 0
+        final int base;
+        // preallocated, so that searches can read the vectors of nodes while others are being added
+        final float[][] vectors;
+        final ListRandomAccessVectorValues ravv;
+        final GraphIndexBuilder<float[]> builder;
+        // the number of vectors added; written only under the index's lock
+        volatile int size;
+
+        MemorySegment(int base, float[][] vectors) {
+            this.base = base;
+            this.vectors = vectors;
+            this.ravv = new ListRandomAccessVectorValues(Arrays.asList(vectors), dimension);
+            this.builder = new GraphIndexBuilder<>(ravv, VectorEncoding.FLOAT32, similarityFunction, M, beamWidth, neighborOverflow, alpha);
+        }
+    }
+}
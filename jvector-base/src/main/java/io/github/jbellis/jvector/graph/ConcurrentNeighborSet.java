@@ -20,27 +20,38 @@ import io.github.jbellis.jvector.util.BitSet;
 import io.github.jbellis.jvector.util.Bits;
 import io.github.jbellis.jvector.util.DocIdSetIterator;
 import io.github.jbellis.jvector.util.FixedBitSet;
+import io.github.jbellis.jvector.util.PoolingSupport;
 
-import java.util.HashSet;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
+import java.lang.invoke.VarHandle;
 import java.util.function.Function;
 
 import static java.lang.Math.min;
 
-/** A concurrent set of neighbors that encapsulates diversity/pruning mechanics. */
+/**
+ * A concurrent set of neighbors that encapsulates diversity/pruning mechanics.
+ * <p>
+ * The neighbors are stored in a NodeArray that is updated in place: "iterate through a node's neighbors"
+ * is a hot loop in adding to the graph, and NodeArray can do that much faster than a concurrent Collection
+ * (no boxing/unboxing, all the data is stored sequentially instead of having to follow references), while
+ * updating it in place avoids allocating a copy for every edge added.
+ * <p>
+ * Writers synchronize on the set, so updates to different nodes never contend.  Readers do not lock:
+ * the set is a seqlock, whose version is odd while the array is being modified.  A reader copies what
+ * it needs and retries if the version changed in the meantime, so it always sees a consistent state
+ * without blocking writers.
+ */
 public class ConcurrentNeighborSet {
+    /** per-thread buffers for merging and diversity selection, so that warm inserts do not allocate */
+    private static final PoolingSupport<Scratch> SCRATCH = PoolingSupport.newThreadBased(Scratch::new);
+
     /** the node id whose neighbors we are storing */
     private final int nodeId;
 
-    /**
-     * We use a copy-on-write NeighborArray to store the neighbors. Even though updating this is
-     * expensive, it is still faster than using a concurrent Collection because "iterate through a
-     * node's neighbors" is a hot loop in adding to the graph, and NeighborArray can do that much
-     * faster: no boxing/unboxing, all the data is stored sequentially instead of having to follow
-     * references, and no fancy encoding necessary for node/score.
-     */
-    private final AtomicReference<NodeArray> neighborsRef;
+    /** modified in place, only while holding the monitor and with an odd version */
+    private final NodeArray neighbors;
+
+    /** the seqlock version; see beginWrite */
+    private volatile int version;
 
     private final float alpha;
 
@@ -70,7 +81,7 @@ public class ConcurrentNeighborSet {
         this.maxConnections = maxConnections;
         this.similarity = similarity;
         this.alpha = alpha;
-        this.neighborsRef = new AtomicReference<>(neighbors);
+        this.neighbors = neighbors;
     }
 
     private ConcurrentNeighborSet(ConcurrentNeighborSet old) {
@@ -78,7 +89,7 @@ public class ConcurrentNeighborSet {
         this.maxConnections = old.maxConnections;
         this.similarity = old.similarity;
         this.alpha = old.alpha;
-        neighborsRef = new AtomicReference<>(old.neighborsRef.get());
+        this.neighbors = old.getCurrent();
     }
 
     public float getShortEdges() {
@@ -86,7 +97,59 @@ public class ConcurrentNeighborSet {
     }
 
     public NodesIterator iterator() {
-        return new NeighborIterator(neighborsRef.get());
+        return iterator(new int[0]);
+    }
+
+    /**
+     * @return an iterator over a consistent snapshot of the neighbors, copied into scratch if it is long
+     * enough (see {@link #arrayLength}) and into a new array otherwise.  The iterator is only valid until
+     * scratch is reused.
+     */
+    NodesIterator iterator(int[] scratch) {
+        while (true) {
+            int v = awaitVersion();
+            int[] nodes = neighbors.node;
+            int n = min(neighbors.size, nodes.length);
+            int[] target = n <= scratch.length ? scratch : new int[n];
+            System.arraycopy(nodes, 0, target, 0, n);
+            if (validate(v)) {
+                return new NodesIterator.ArrayNodesIterator(target, n);
+            }
+        }
+    }
+
+    /**
+     * @return the current version, once no write is in progress
+     */
+    private int awaitVersion() {
+        int v;
+        while (((v = version) & 1) != 0) {
+            Thread.onSpinWait();
+        }
+        return v;
+    }
+
+    /**
+     * @return true if no write started since awaitVersion returned v, so that what was read since is consistent
+     */
+    private boolean validate(int v) {
+        // keep the reads of the array from moving after the version check
+        VarHandle.loadLoadFence();
+        return version == v;
+    }
+
+    /**
+     * Marks the start of an in-place modification.  Must be called while holding the monitor.
+     */
+    private void beginWrite() {
+        version++;
+        // keep the writes to the array from moving before the version is made odd
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWrite() {
+        // the volatile write publishes the modified array along with the even version
+        version++;
     }
 
     /**
@@ -94,12 +157,16 @@ public class ConcurrentNeighborSet {
      * If overflow is > 1.0, allow the number of neighbors to exceed maxConnections temporarily.
      */
     public void backlink(Function<Integer, ConcurrentNeighborSet> neighborhoodOf, float overflow) {
-        NodeArray neighbors = neighborsRef.get();
-        for (int i = 0; i < neighbors.size(); i++) {
-            int nbr = neighbors.node[i];
-            float nbrScore = neighbors.score[i];
-            ConcurrentNeighborSet nbrNbr = neighborhoodOf.apply(nbr);
-            nbrNbr.insert(nodeId, nbrScore, overflow);
+        // iterate over a snapshot, since locking this set while inserting into the others could deadlock.
+        // insert does not use the backlinks scratch, so it is not clobbered by the inserts below
+        try (var pooled = SCRATCH.get()) {
+            NodeArray neighbors = copyInto(pooled.get().backlinks);
+            for (int i = 0; i < neighbors.size(); i++) {
+                int nbr = neighbors.node[i];
+                float nbrScore = neighbors.score[i];
+                ConcurrentNeighborSet nbrNbr = neighborhoodOf.apply(nbr);
+                nbrNbr.insert(nodeId, nbrScore, overflow);
+            }
         }
     }
 
@@ -108,66 +175,51 @@ public class ConcurrentNeighborSet {
      * for efficiency.  This method is threadsafe, but if you call it concurrently with other inserts,
      * the limit may end up being exceeded again.
      */
-    public void cleanup() {
-        neighborsRef.getAndUpdate(this::removeAllNonDiverse);
+    public synchronized void cleanup() {
+        removeAllNonDiverse();
     }
 
     /**
      * @return true if we had deleted neighbors
      */
-    public boolean removeDeletedNeighbors(Bits deletedNodes) {
-        AtomicBoolean found = new AtomicBoolean();
-        neighborsRef.getAndUpdate(current -> {
+    public synchronized boolean removeDeletedNeighbors(Bits deletedNodes) {
+        try (var scratch = SCRATCH.get()) {
             // build a set of the entries we want to retain
-            var toRetain = new FixedBitSet(current.size);
-            for (int i = 0; i < current.size; i++) {
-                if (deletedNodes.get(current.node[i])) {
-                    found.set(true);
+            boolean found = false;
+            var toRetain = scratch.get().selected(neighbors.size);
+            for (int i = 0; i < neighbors.size; i++) {
+                if (deletedNodes.get(neighbors.node[i])) {
+                    found = true;
                 } else {
                     toRetain.set(i);
                 }
             }
 
-            // if we're retaining everything, no need to make a copy
-            if (!found.get()) {
-                return current;
+            // purge the deleted ones
+            if (found) {
+                beginWrite();
+                neighbors.retain(toRetain);
+                endWrite();
             }
-
-            // copy and purge the deleted ones
-            var next = current.copy();
-            next.retain(toRetain);
-            return next;
-        });
-        return found.get();
-    }
-
-    private static class NeighborIterator extends NodesIterator {
-        private final NodeArray neighbors;
-        private int i;
-
-        private NeighborIterator(NodeArray neighbors) {
-            super(neighbors.size());
-            this.neighbors = neighbors;
-            i = 0;
-        }
-
-        @Override
-        public boolean hasNext() {
-            return i < neighbors.size();
-        }
-
-        @Override
-        public int nextInt() {
-            return neighbors.node[i++];
+            return found;
         }
     }
 
     public int size() {
-        return neighborsRef.get().size();
+        while (true) {
+            int v = awaitVersion();
+            int size = neighbors.size;
+            if (validate(v)) {
+                return size;
+            }
+        }
     }
 
+    /**
+     * @return the length of the arrays the neighbors are stored in; an estimate while they are being modified
+     */
     public int arrayLength() {
-        return neighborsRef.get().node.length;
+        return neighbors.node.length;
     }
 
     /**
@@ -176,12 +228,13 @@ public class ConcurrentNeighborSet {
      * were selected by this method, or were added as a "backlink" to a node inserted concurrently
      * that chose this one as a neighbor.
      */
-    public void insertDiverse(NodeArray natural, NodeArray concurrent) {
+    public synchronized void insertDiverse(NodeArray natural, NodeArray concurrent) {
         if (natural.size() == 0 && concurrent.size() == 0) {
             return;
         }
 
-        neighborsRef.getAndUpdate(current -> {
+        try (var pooled = SCRATCH.get()) {
+            var scratch = pooled.get();
             // if either natural or concurrent is empty, skip the merge
             NodeArray toMerge;
             if (concurrent.size == 0) {
@@ -189,60 +242,58 @@ public class ConcurrentNeighborSet {
             } else if (natural.size == 0) {
                 toMerge = concurrent;
             } else {
-                toMerge = mergeNeighbors(natural, concurrent);
+                toMerge = mergeNeighbors(natural, concurrent, scratch.candidates);
             }
 
             // merge all the candidates into a single array and compute the diverse ones to keep
             // from that.  we do this first by selecting the ones to keep, and then by copying
-            // only those into a new NeighborArray.  This is less expensive than doing the
+            // only those into our array.  This is less expensive than doing the
             // diversity computation in-place, since we are going to do multiple passes and
-            // pruning back extras is expensive.
-            var merged = mergeNeighbors(current, toMerge);
-            BitSet selected = selectDiverse(merged);
+            // pruning back extras is expensive.  Readers are only held up by the copy.
+            var merged = mergeNeighbors(neighbors, toMerge, scratch.merged);
+            BitSet selected = selectDiverse(merged, scratch.selected(merged.size));
             merged.retain(selected);
-            return merged;
-        });
+            replaceWith(merged);
+        }
     }
 
-    void padWithRandom(NodeArray connections) {
+    synchronized void padWithRandom(NodeArray connections) {
         // we deliberately do not perform diversity checks here
         // (it will be invoked when the cleanup code calls insertDiverse later
         // with the results of the nn descent rebuild)
-        neighborsRef.getAndUpdate(current -> mergeNeighbors(current, connections));
+        try (var scratch = SCRATCH.get()) {
+            replaceWith(mergeNeighbors(neighbors, connections, scratch.get().merged));
+        }
     }
 
-    void insertNotDiverse(int node, float score, boolean limitConnections) {
-        neighborsRef.getAndUpdate(current -> {
-            NodeArray next = current.copy();
-            if (limitConnections) {
-                // remove the worst edge to make room for the new one
-                next.size = min(next.size, maxConnections - 1);
-            }
-            next.insertSorted(node, score);
-            return next;
-        });
+    synchronized void insertNotDiverse(int node, float score, boolean limitConnections) {
+        beginWrite();
+        if (limitConnections) {
+            // remove the worst edge to make room for the new one
+            neighbors.size = min(neighbors.size, maxConnections - 1);
+        }
+        neighbors.insertSorted(node, score);
+        endWrite();
     }
 
     /**
-     * Copies the selected neighbors from the merged array into a new array.
+     * Overwrites the neighbors with the contents of other.  Must be called while holding the monitor.
      */
-    private NodeArray copyDiverse(NodeArray merged, BitSet selected) {
-        NodeArray next = new NodeArray(maxConnections);
-        for (int i = 0; i < merged.size(); i++) {
-            if (!selected.get(i)) {
-                continue;
-            }
-            int node = merged.node()[i];
-            assert node != nodeId : "can't add self as neighbor at node " + nodeId;
-            float score = merged.score()[i];
-            next.addInOrder(node, score);
+    private void replaceWith(NodeArray other) {
+        beginWrite();
+        while (neighbors.node.length < other.size) {
+            neighbors.growArrays();
         }
-        assert next.size <= maxConnections;
-        return next;
+        System.arraycopy(other.node, 0, neighbors.node, 0, other.size);
+        System.arraycopy(other.score, 0, neighbors.score, 0, other.size);
+        neighbors.size = other.size;
+        endWrite();
     }
 
-    private BitSet selectDiverse(NodeArray neighbors) {
-        BitSet selected = new FixedBitSet(neighbors.size());
+    /**
+     * @param selected an empty BitSet, that is filled in with the positions of the diverse neighbors
+     */
+    private BitSet selectDiverse(NodeArray neighbors, BitSet selected) {
         int nSelected = 0;
 
         // add diverse candidates, gradually increasing alpha to the threshold
@@ -271,110 +322,121 @@ public class ConcurrentNeighborSet {
         return selected;
     }
 
+    /**
+     * @return a copy of the neighbors and their scores, consistent with concurrent updates
+     */
     NodeArray getCurrent() {
-        return neighborsRef.get();
+        return copyInto(new NodeArray(arrayLength()));
+    }
+
+    /**
+     * Copies the neighbors and their scores into target, consistent with concurrent updates, growing it if necessary.
+     *
+     * @return target
+     */
+    private NodeArray copyInto(NodeArray target) {
+        while (true) {
+            int v = awaitVersion();
+            int[] nodes = neighbors.node;
+            float[] scores = neighbors.score;
+            int n = min(neighbors.size, min(nodes.length, scores.length));
+            while (target.node.length < n) {
+                target.growArrays();
+            }
+            System.arraycopy(nodes, 0, target.node, 0, n);
+            System.arraycopy(scores, 0, target.score, 0, n);
+            target.size = n;
+            if (validate(v)) {
+                return target;
+            }
+        }
     }
 
     static NodeArray mergeNeighbors(NodeArray a1, NodeArray a2) {
-        NodeArray merged = new NodeArray(a1.size() + a2.size());
-        int i = 0, j = 0;
+        return mergeNeighbors(a1, a2, new NodeArray(a1.size() + a2.size()));
+    }
 
-        // since nodes are only guaranteed to be sorted by score -- ties can appear in any node order --
-        // we need to remember all the nodes with the current score to avoid adding duplicates
-        var nodesWithLastScore = new HashSet<>();
-        float lastAddedScore = Float.NaN;
+    /**
+     * Merges a1 and a2, which are sorted by score, into merged, dropping duplicates.  merged is cleared first
+     * and grown if necessary.
+     *
+     * @return merged
+     */
+    static NodeArray mergeNeighbors(NodeArray a1, NodeArray a2, NodeArray merged) {
+        merged.clear();
+        while (merged.node.length < a1.size + a2.size) {
+            merged.growArrays();
+        }
+        int i = 0, j = 0;
 
         // loop through both source arrays, adding the highest score element to the merged array,
         // until we reach the end of one of the sources
-        while (i < a1.size() && j < a2.size()) {
-            if (a1.score()[i] < a2.score[j]) {
+        while (i < a1.size && j < a2.size) {
+            if (a1.score[i] < a2.score[j]) {
                 // add from a2
-                if (a2.score[j] != lastAddedScore) {
-                    nodesWithLastScore.clear();
-                    lastAddedScore = a2.score[j];
-                }
-                if (nodesWithLastScore.add(a2.node[j])) {
-                    merged.addInOrder(a2.node[j], a2.score[j]);
-                }
+                addIfAbsent(merged, a2.node[j], a2.score[j]);
                 j++;
-            } else if (a1.score()[i] > a2.score[j]) {
+            } else if (a1.score[i] > a2.score[j]) {
                 // add from a1
-                if (a1.score()[i] != lastAddedScore) {
-                    nodesWithLastScore.clear();
-                    lastAddedScore = a1.score()[i];
-                }
-                if (nodesWithLastScore.add(a1.node()[i])) {
-                    merged.addInOrder(a1.node()[i], a1.score()[i]);
-                }
+                addIfAbsent(merged, a1.node[i], a1.score[i]);
                 i++;
             } else {
                 // same score -- add both
-                if (a1.score()[i] != lastAddedScore) {
-                    nodesWithLastScore.clear();
-                    lastAddedScore = a1.score()[i];
-                }
-                if (nodesWithLastScore.add(a1.node()[i])) {
-                    merged.addInOrder(a1.node()[i], a1.score()[i]);
-                }
-                if (nodesWithLastScore.add(a2.node()[j])) {
-                    merged.addInOrder(a2.node[j], a2.score[j]);
-                }
+                addIfAbsent(merged, a1.node[i], a1.score[i]);
+                addIfAbsent(merged, a2.node[j], a2.score[j]);
                 i++;
                 j++;
             }
         }
 
-        // If elements remain in a1, add them
-        if (i < a1.size()) {
-            // avoid duplicates while adding nodes with the same score
-            while (i < a1.size && a1.score()[i] == lastAddedScore) {
-                if (!nodesWithLastScore.contains(a1.node()[i])) {
-                    merged.addInOrder(a1.node()[i], a1.score()[i]);
-                }
-                i++;
-            }
-            // the remaining nodes have a different score, so we can bulk-add them
-            System.arraycopy(a1.node, i, merged.node, merged.size, a1.size - i);
-            System.arraycopy(a1.score, i, merged.score, merged.size, a1.size - i);
-            merged.size += a1.size - i;
+        // add the elements that remain in either source
+        addRemaining(merged, a1, i);
+        addRemaining(merged, a2, j);
+        return merged;
+    }
+
+    private static void addRemaining(NodeArray merged, NodeArray source, int i) {
+        // avoid duplicates while adding nodes with the same score as the last one added
+        while (i < source.size && merged.size > 0 && source.score[i] == merged.score[merged.size - 1]) {
+            addIfAbsent(merged, source.node[i], source.score[i]);
+            i++;
         }
+        // the remaining nodes have a different score, so we can bulk-add them
+        System.arraycopy(source.node, i, merged.node, merged.size, source.size - i);
+        System.arraycopy(source.score, i, merged.score, merged.size, source.size - i);
+        merged.size += source.size - i;
+    }
 
-        // If elements remain in a2, add them
-        if (j < a2.size()) {
-            // avoid duplicates while adding nodes with the same score
-            while (j < a2.size && a2.score[j] == lastAddedScore) {
-                if (!nodesWithLastScore.contains(a2.node[j])) {
-                    merged.addInOrder(a2.node[j], a2.score[j]);
-                }
-                j++;
+    /**
+     * Adds node to the end of merged, unless it is already there.  Since nodes are only sorted by score --
+     * ties can appear in any node order -- a duplicate is not necessarily adjacent, but it must be among the
+     * nodes with the same score at the end of merged.  Ties are rare, so scanning those is cheaper than
+     * maintaining a set.
+     */
+    private static void addIfAbsent(NodeArray merged, int node, float score) {
+        for (int k = merged.size - 1; k >= 0 && merged.score[k] == score; k--) {
+            if (merged.node[k] == node) {
+                return;
             }
-            // the remaining nodes have a different score, so we can bulk-add them
-            System.arraycopy(a2.node, j, merged.node, merged.size, a2.size - j);
-            System.arraycopy(a2.score, j, merged.score, merged.size, a2.size - j);
-            merged.size += a2.size - j;
         }
-
-        return merged;
+        merged.addInOrder(node, score);
     }
 
     /**
      * Insert a new neighbor, maintaining our size cap by removing the least diverse neighbor if
      * necessary. "Overflow" is the factor by which to allow going over the size cap temporarily.
      */
-    public void insert(int neighborId, float score, float overflow) {
+    public synchronized void insert(int neighborId, float score, float overflow) {
         assert neighborId != nodeId : "can't add self as neighbor at node " + nodeId;
-        neighborsRef.getAndUpdate(
-                current -> {
-                    NodeArray next = current.copy();
-                    next.insertSorted(neighborId, score);
-                    // batch up the enforcement of the max connection limit, since otherwise
-                    // we do a lot of duplicate work scanning nodes that we won't remove
-                    var hardMax = overflow * maxConnections;
-                    if (next.size > hardMax) {
-                        next = removeAllNonDiverse(next);
-                    }
-                    return next;
-                });
+        beginWrite();
+        neighbors.insertSorted(neighborId, score);
+        endWrite();
+        // batch up the enforcement of the max connection limit, since otherwise
+        // we do a lot of duplicate work scanning nodes that we won't remove
+        var hardMax = overflow * maxConnections;
+        if (neighbors.size > hardMax) {
+            removeAllNonDiverse();
+        }
     }
 
     // is the candidate node with the given score closer to the base node than it is to any of the
@@ -403,18 +465,45 @@ public class ConcurrentNeighborSet {
         return true;
     }
 
-    private NodeArray removeAllNonDiverse(NodeArray neighbors) {
+    /**
+     * Prunes the neighbors to the diverse ones, if there are more than maxConnections.  Must be called
+     * while holding the monitor.  The selection only reads the array, so readers are only held up while
+     * the non-diverse neighbors are removed.
+     */
+    private void removeAllNonDiverse() {
         if (neighbors.size <= maxConnections) {
-            return neighbors;
+            return;
+        }
+        try (var scratch = SCRATCH.get()) {
+            BitSet selected = selectDiverse(neighbors, scratch.get().selected(neighbors.size));
+            beginWrite();
+            neighbors.retain(selected);
+            endWrite();
         }
-        BitSet selected = selectDiverse(neighbors);
-        return copyDiverse(neighbors, selected);
+        assert neighbors.size <= maxConnections;
     }
 
     public ConcurrentNeighborSet copy() {
         return new ConcurrentNeighborSet(this);
     }
 
+    private static final class Scratch {
+        final NodeArray candidates = new NodeArray(32);
+        final NodeArray merged = new NodeArray(32);
+        final NodeArray backlinks = new NodeArray(32);
+        private FixedBitSet selected = new FixedBitSet(64);
+
+        /**
+         * @return an empty BitSet with room for at least size bits
+         */
+        FixedBitSet selected(int size) {
+            // clear before growing, since ensureCapacity relies on the bits past the old length being clear
+            selected.clear();
+            selected = FixedBitSet.ensureCapacity(selected, size);
+            return selected;
+        }
+    }
+
     /** Only for testing; this is a linear search */
     boolean contains(int i) {
         var it = this.iterator();
@@ -0,0 +1,204 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.graph;
+
+import io.github.jbellis.jvector.pq.CompressedVectors;
+import io.github.jbellis.jvector.util.Bits;
+import io.github.jbellis.jvector.util.BoundedLongHeap;
+import io.github.jbellis.jvector.util.PhysicalCoreExecutor;
+import io.github.jbellis.jvector.vector.VectorEncoding;
+import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
+
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static java.lang.Math.min;
+
+/**
+ * Searches by scoring every acceptable vector, without a graph.
+ * <p>
+ * For small collections, and for filters that accept only a few vectors, this is cheaper than a graph
+ * search and always finds the true nearest neighbors (of the score function used).  The vectors are
+ * scanned in chunks, in parallel on the {@link PhysicalCoreExecutor} pool, and the best results of
+ * each chunk are merged.  Results are returned as a {@link SearchResult}, so callers can route each
+ * query to a graph or exact search, whichever is cheaper, and handle the results the same way.
+ * The results do not track visited nodes; the visited count is the number of vectors scored.
+ */
+public final class ExactSearcher {
+    // the number of vectors scored by each parallel task; smaller collections are scanned by the calling thread
+    static final int CHUNK_SIZE = 4096;
+
+    private ExactSearcher() {
+    }
+
+    /**
+     * @param query              the query vector
+     * @param topK               the number of results to return
+     * @param vectors            the vectors to search, by ordinal
+     * @param vectorEncoding     the encoding of the vectors
+     * @param similarityFunction the similarity function to compare vectors with
+     * @param acceptOrds         a Bits instance indicating which ordinals are acceptable results.
+     *                           If {@link Bits#ALL}, all ordinals are acceptable.
+     * @return the topK most similar acceptable vectors
+     */
+    public static <T> SearchResult search(T query,
+                                          int topK,
+                                          RandomAccessVectorValues<T> vectors,
+                                          VectorEncoding vectorEncoding,
+                                          VectorSimilarityFunction similarityFunction,
+                                          Bits acceptOrds)
+    {
+        // each chunk gets its own copy, since the vector values may be shared
+        Supplier<NodeSimilarity.ScoreFunction> scoreFunctions = () -> {
+            var chunkVectors = vectors.copy();
+            switch (vectorEncoding) {
+                case BYTE:
+                    return (NodeSimilarity.ExactScoreFunction) i -> similarityFunction.compare((byte[]) query, (byte[]) chunkVectors.vectorValue(i));
+                case FLOAT32:
+                    return (NodeSimilarity.ExactScoreFunction) i -> similarityFunction.compare((float[]) query, (float[]) chunkVectors.vectorValue(i));
+                default:
+                    throw new RuntimeException("Unsupported vector encoding: " + vectorEncoding);
+            }
+        };
+        return search(scoreFunctions, null, vectors.size(), topK, acceptOrds);
+    }
+
+    /**
+     * Scores the compressed vectors, then re-ranks the best topK of them with reRanker.
+     *
+     * @param query              the query vector
+     * @param topK               the number of results to return
+     * @param vectors            the compressed vectors to search, by ordinal
+     * @param similarityFunction the similarity function to compare vectors with
+     * @param reRanker           computes the exact similarity of the query to a given ordinal.  It is only
+     *                           called by the calling thread.
+     * @param acceptOrds         a Bits instance indicating which ordinals are acceptable results.
+     *                           If {@link Bits#ALL}, all ordinals are acceptable.
+     * @return the topK most similar acceptable vectors according to the compressed vectors, scored by reRanker
+     */
+    public static SearchResult search(float[] query,
+                                      int topK,
+                                      CompressedVectors vectors,
+                                      VectorSimilarityFunction similarityFunction,
+                                      NodeSimilarity.ReRanker reRanker,
+                                      Bits acceptOrds)
+    {
+        if (reRanker == null) {
+            throw new IllegalArgumentException("reRanker must not be null when searching compressed vectors");
+        }
+        // the score function only reads its lookup tables, so the chunks can share it
+        var scoreFunction = vectors.approximateScoreFunctionFor(query, similarityFunction);
+        return search(() -> scoreFunction, reRanker, vectors.count(), topK, acceptOrds);
+    }
+
+    /**
+     * @param scoreFunctions supplies the score function used by each chunk.  It is called once per chunk,
+     *                       possibly concurrently, and each function is used by a single thread.
+     * @param reRanker       if the score functions are approximate, re-ranks the final results; called
+     *                       only by the calling thread
+     * @param size           the number of ordinals to scan
+     */
+    static SearchResult search(Supplier<NodeSimilarity.ScoreFunction> scoreFunctions,
+                               NodeSimilarity.ReRanker reRanker,
+                               int size,
+                               int topK,
+                               Bits acceptOrds)
+    {
+        if (acceptOrds == null) {
+            throw new IllegalArgumentException("Use MatchAllBits to indicate that all ordinals are accepted, instead of null");
+        }
+        if (topK <= 0) {
+            throw new IllegalArgumentException("topK must be positive, got " + topK);
+        }
+
+        var scoreFunction = scoreFunctions.get();
+        if (!scoreFunction.isExact() && reRanker == null) {
+            throw new IllegalArgumentException("Either scoreFunction must be exact, or reRanker must not be null");
+        }
+
+        int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        NodeQueue resultsQueue;
+        int scored;
+        if (chunks <= 1) {
+            resultsQueue = newResultsQueue(topK);
+            scored = scan(scoreFunction, 0, size, topK, acceptOrds, resultsQueue);
+        } else {
+            List<ChunkResult> chunkResults = PhysicalCoreExecutor.instance.submit(() -> IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+                var queue = newResultsQueue(topK);
+                int start = chunk * CHUNK_SIZE;
+                int end = min(size, start + CHUNK_SIZE);
+                int count = scan(chunk == 0 ? scoreFunction : scoreFunctions.get(), start, end, topK, acceptOrds, queue);
+                return new ChunkResult(queue, count);
+            }).collect(Collectors.toList()));
+
+            resultsQueue = newResultsQueue(topK);
+            scored = 0;
+            for (var chunkResult : chunkResults) {
+                scored += chunkResult.scored;
+                var queue = chunkResult.queue;
+                while (queue.size() > 0) {
+                    float score = queue.topScore();
+                    resultsQueue.push(queue.pop(), score);
+                }
+            }
+        }
+        return new SearchResult(GraphSearcher.extractScores(scoreFunction, reRanker, resultsQueue), null, scored);
+    }
+
+    private static NodeQueue newResultsQueue(int topK) {
+        return new NodeQueue(new BoundedLongHeap(min(1024, topK), topK), NodeQueue.Order.MIN_HEAP);
+    }
+
+    /**
+     * Pushes the accepted ordinals in [start, end) to resultsQueue.
+     *
+     * @return the number of ordinals scored
+     */
+    private static int scan(NodeSimilarity.ScoreFunction scoreFunction,
+                            int start,
+                            int end,
+                            int topK,
+                            Bits acceptOrds,
+                            NodeQueue resultsQueue)
+    {
+        int scored = 0;
+        for (int node = GraphSearcher.nextAccepted(acceptOrds, acceptOrds, start, end);
+             node < end;
+             node = GraphSearcher.nextAccepted(acceptOrds, acceptOrds, node + 1, end))
+        {
+            float score = scoreFunction.similarityTo(node);
+            scored++;
+            // once the queue is full, skip the heap operations for nodes that can't enter it
+            if (resultsQueue.size() < topK || score > resultsQueue.topScore()) {
+                resultsQueue.push(node, score);
+            }
+        }
+        return scored;
+    }
+
+    private static final class ChunkResult {
+        final NodeQueue queue;
+        final int scored;
+
+        ChunkResult(NodeQueue queue, int scored) {
+            this.queue = queue;
+            this.scored = scored;
+        }
+    }
+}
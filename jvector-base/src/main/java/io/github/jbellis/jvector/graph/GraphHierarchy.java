@@ -0,0 +1,123 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.graph;
+
+import io.github.jbellis.jvector.util.Accountable;
+import io.github.jbellis.jvector.util.RamUsageEstimator;
+
+import java.util.Arrays;
+
+/**
+ * The sparse upper levels of a hierarchical graph index, HNSW-style.  Level 0 is the graph itself and
+ * is not represented here; each upper level contains a subset of the nodes of the level below it, with
+ * its own (much shorter) edges.  Node ids are the ordinals used by level 0.
+ * <p>
+ * Searches descend greedily from the entry node of the top level to find a good starting
+ * point for the beam search on level 0.
+ * <p>
+ * Instances are immutable.
+ */
+public final class GraphHierarchy implements Accountable {
+    public static final GraphHierarchy EMPTY = new GraphHierarchy(-1, new int[0][], new int[0][][]);
+
+    private final int entryNode;
+    // levelNodes[i] holds the sorted node ids of level i + 1
+    private final int[][] levelNodes;
+    // levelNeighbors[i][j] holds the neighbors of levelNodes[i][j] on level i + 1
+    private final int[][][] levelNeighbors;
+
+    /**
+     * @param entryNode the node to start descending from; must be present on the top level
+     * @param levelNodes the sorted node ids of each upper level, starting with level 1
+     * @param levelNeighbors the neighbors of each node on each upper level, in the same order as levelNodes
+     */
+    public GraphHierarchy(int entryNode, int[][] levelNodes, int[][][] levelNeighbors) {
+        if (levelNodes.length != levelNeighbors.length) {
+            throw new IllegalArgumentException(String.format("Got %d levels of nodes but %d levels of neighbors",
+                                                             levelNodes.length, levelNeighbors.length));
+        }
+        for (int i = 0; i < levelNodes.length; i++) {
+            if (levelNodes[i].length != levelNeighbors[i].length) {
+                throw new IllegalArgumentException(String.format("Level %d has %d nodes but %d neighbor lists",
+                                                                 i + 1, levelNodes[i].length, levelNeighbors[i].length));
+            }
+        }
+        if (levelNodes.length > 0 && Arrays.binarySearch(levelNodes[levelNodes.length - 1], entryNode) < 0) {
+            throw new IllegalArgumentException("Entry node " + entryNode + " is not present on the top level");
+        }
+        this.entryNode = entryNode;
+        this.levelNodes = levelNodes;
+        this.levelNeighbors = levelNeighbors;
+    }
+
+    /**
+     * @return the number of upper levels; 0 if the graph is flat
+     */
+    public int levels() {
+        return levelNodes.length;
+    }
+
+    /**
+     * @return the node to start descending from, or -1 if there are no upper levels
+     */
+    public int entryNode() {
+        return entryNode;
+    }
+
+    /**
+     * @param level the level, from 1 to levels() inclusive
+     * @return the sorted ids of the nodes present on the given level.  Do not modify the returned array.
+     */
+    public int[] nodes(int level) {
+        return levelNodes[level - 1];
+    }
+
+    /**
+     * @param level the level, from 1 to levels() inclusive
+     * @param node a node present on the given level
+     * @return the neighbors of the node on the given level.  Do not modify the returned array.
+     */
+    public int[] neighbors(int level, int node) {
+        int i = Arrays.binarySearch(levelNodes[level - 1], node);
+        if (i < 0) {
+            throw new IllegalArgumentException(String.format("Node %d is not present on level %d", node, level));
+        }
+        return levelNeighbors[level - 1][i];
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long total = 0;
+        for (int i = 0; i < levelNodes.length; i++) {
+            total += RamUsageEstimator.sizeOf(levelNodes[i]);
+            total += RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) levelNeighbors[i].length * RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+            for (var neighbors : levelNeighbors[i]) {
+                total += RamUsageEstimator.sizeOf(neighbors);
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        var sizes = new int[levelNodes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = levelNodes[i].length;
+        }
+        return String.format("GraphHierarchy(entryNode=%d, levelSizes=%s)", entryNode, Arrays.toString(sizes));
+    }
+}
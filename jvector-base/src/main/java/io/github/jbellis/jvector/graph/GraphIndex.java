@@ -95,6 +95,30 @@ public interface GraphIndex<T> extends AutoCloseable {
          */
         int entryNode();
 
+        /**
+         * @return the upper levels of the graph, if any, to descend through when looking for a
+         * better starting point than entryNode() for a given query
+         */
+        default GraphHierarchy hierarchy() {
+            return GraphHierarchy.EMPTY;
+        }
+
+        /**
+         * @return nodes representative of different regions of the graph, that searches may start from
+         * in addition to entryNode().  Empty if the graph does not have any.  Do not modify the returned array.
+         */
+        default int[] entryPoints() {
+            return new int[0];
+        }
+
+        /**
+         * Hints that the neighbors of the given node are likely to be read soon, so that an implementation
+         * backed by slow storage can start loading them in the background.  Must not block; the default
+         * does nothing.
+         */
+        default void prefetch(int node) {
+        }
+
         /**
          * Retrieve the vector associated with a given node.
          * <p>
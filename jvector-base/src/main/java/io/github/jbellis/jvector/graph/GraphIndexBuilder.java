@@ -18,6 +18,7 @@ package io.github.jbellis.jvector.graph;
 
 import io.github.jbellis.jvector.annotations.VisibleForTesting;
 import io.github.jbellis.jvector.disk.RandomAccessReader;
+import io.github.jbellis.jvector.pq.KMeansPlusPlusClusterer;
 import io.github.jbellis.jvector.util.AtomicFixedBitSet;
 import io.github.jbellis.jvector.util.Bits;
 import io.github.jbellis.jvector.util.PhysicalCoreExecutor;
@@ -28,11 +29,10 @@ import io.github.jbellis.jvector.vector.VectorUtil;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Random;
-import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -59,7 +59,8 @@ public class GraphIndexBuilder<T> {
 
     @VisibleForTesting
     final OnHeapGraphIndex<T> graph;
-    private final ConcurrentSkipListSet<Integer> insertionsInProgress = new ConcurrentSkipListSet<>();
+    private final InProgressInsertions insertionsInProgress;
+    private final PoolingSupport<int[]> inProgressScratch;
 
     // We need two sources of vectors in order to perform diversity check comparisons without
     // colliding.  Usually it's obvious because you can see the different sources being used
@@ -69,12 +70,31 @@ public class GraphIndexBuilder<T> {
     private final PoolingSupport<RandomAccessVectorValues<T>> vectorsCopy;
     private final int dimension; // for convenience so we don't have to go to the pool for this
     private final NodeSimilarity similarity;
+    // null if the vectors are too small for caching their scores to pay off
+    private final PairScoreCache pairScores;
 
     private final ForkJoinPool simdExecutor;
     private final ForkJoinPool parallelExecutor;
 
     private final AtomicInteger updateEntryNodeIn = new AtomicInteger(10_000);
 
+    // entry point selection clusters (at most) this many nodes
+    private static final int ENTRY_POINT_SAMPLE_SIZE = 10_000;
+    private static final int ENTRY_POINT_KMEANS_ITERATIONS = 6;
+    // the minimum number of concurrent inserts that can be in progress without waiting for a free slot
+    private static final int MIN_INSERTION_SLOTS = 64;
+    // below this dimension, computing a score costs about as much as the cache miss of looking it up
+    private static final int PAIR_SCORE_CACHE_MIN_DIMENSION = 1024;
+    // 16 bytes per pair
+    private static final int MIN_PAIR_SCORE_CACHE_SIZE = 1 << 16;
+    private static final int MAX_PAIR_SCORE_CACHE_SIZE = 1 << 20;
+    private volatile int entryPointCount;
+
+    // the original vectors and M, retained to build the upper levels of the hierarchy
+    private final RandomAccessVectorValues<T> vectorValues;
+    private final int M;
+    private final boolean hierarchyEnabled;
+
     /**
      * Reads all the vectors from vector values, builds a graph connecting them by their dense
      * ordinals, using the given hyperparameter settings, and returns the resulting graph.
@@ -128,6 +148,72 @@ public class GraphIndexBuilder<T> {
             float alpha,
             ForkJoinPool simdExecutor,
             ForkJoinPool parallelExecutor) {
+        this(vectorValues, vectorEncoding, similarityFunction, M, beamWidth, neighborOverflow, alpha, false,
+                simdExecutor, parallelExecutor);
+    }
+
+    /**
+     * Reads all the vectors from vector values, builds a graph connecting them by their dense
+     * ordinals, using the given hyperparameter settings, and returns the resulting graph.
+     *
+     * @param vectorValues     the vectors whose relations are represented by the graph - must provide a
+     *                         different view over those vectors than the one used to add via addGraphNode.
+     * @param M                – the maximum number of connections a node can have
+     * @param beamWidth        the size of the beam search to use when finding nearest neighbors.
+     * @param neighborOverflow the ratio of extra neighbors to allow temporarily when inserting a
+     *                         node. larger values will build more efficiently, but use more memory.
+     * @param alpha            how aggressive pruning diverse neighbors should be.  Set alpha &gt; 1.0 to
+     *                         allow longer edges.  If alpha = 1.0 then the equivalent of the lowest level of
+     *                         an HNSW graph will be created, which is usually not what you want.
+     * @param hierarchy        if true, cleanup() will also build sparse upper levels that searches descend
+     *                         through to find their starting point.  This is worthwhile for large graphs.
+     */
+    public GraphIndexBuilder(
+            RandomAccessVectorValues<T> vectorValues,
+            VectorEncoding vectorEncoding,
+            VectorSimilarityFunction similarityFunction,
+            int M,
+            int beamWidth,
+            float neighborOverflow,
+            float alpha,
+            boolean hierarchy) {
+        this(vectorValues, vectorEncoding, similarityFunction, M, beamWidth, neighborOverflow, alpha, hierarchy,
+                PhysicalCoreExecutor.pool(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Reads all the vectors from vector values, builds a graph connecting them by their dense
+     * ordinals, using the given hyperparameter settings, and returns the resulting graph.
+     *
+     * @param vectorValues     the vectors whose relations are represented by the graph - must provide a
+     *                         different view over those vectors than the one used to add via addGraphNode.
+     * @param M                – the maximum number of connections a node can have
+     * @param beamWidth        the size of the beam search to use when finding nearest neighbors.
+     * @param neighborOverflow the ratio of extra neighbors to allow temporarily when inserting a
+     *                         node. larger values will build more efficiently, but use more memory.
+     * @param alpha            how aggressive pruning diverse neighbors should be.  Set alpha &gt; 1.0 to
+     *                         allow longer edges.  If alpha = 1.0 then the equivalent of the lowest level of
+     *                         an HNSW graph will be created, which is usually not what you want.
+     * @param hierarchy        if true, cleanup() will also build sparse upper levels that searches descend
+     *                         through to find their starting point.  This is worthwhile for large graphs.
+     * @param simdExecutor     ForkJoinPool instance for SIMD operations, best is to use a pool with the size of
+     *                         the number of physical cores.
+     * @param parallelExecutor ForkJoinPool instance for parallel stream operations
+     */
+    public GraphIndexBuilder(
+            RandomAccessVectorValues<T> vectorValues,
+            VectorEncoding vectorEncoding,
+            VectorSimilarityFunction similarityFunction,
+            int M,
+            int beamWidth,
+            float neighborOverflow,
+            float alpha,
+            boolean hierarchy,
+            ForkJoinPool simdExecutor,
+            ForkJoinPool parallelExecutor) {
+        this.vectorValues = vectorValues;
+        this.M = M;
+        this.hierarchyEnabled = hierarchy;
         vectors = vectorValues.isValueShared() ? PoolingSupport.newThreadBased(vectorValues::copy) : PoolingSupport.newNoPooling(vectorValues);
         vectorsCopy = vectorValues.isValueShared() ? PoolingSupport.newThreadBased(vectorValues::copy) : PoolingSupport.newNoPooling(vectorValues);
         dimension = vectorValues.dimension();
@@ -145,12 +231,16 @@ public class GraphIndexBuilder<T> {
         this.simdExecutor = simdExecutor;
         this.parallelExecutor = parallelExecutor;
 
-        similarity = node1 -> {
-            try (var v = vectors.get(); var vc = vectorsCopy.get()) {
-                T v1 = v.get().vectorValue(node1);
-                return (NodeSimilarity.ExactScoreFunction) node2 -> scoreBetween(v1, vc.get().vectorValue(node2));
-            }
-        };
+        NodeSimilarity exactSimilarity = similarityOver(vectors, vectorsCopy);
+        // diversity checks rescore the same pairs of neighbors every time a neighbor list is pruned
+        if (dimension >= PAIR_SCORE_CACHE_MIN_DIMENSION) {
+            long pairs = Math.max(MIN_PAIR_SCORE_CACHE_SIZE, (long) vectorValues.size() * M);
+            pairScores = new PairScoreCache((int) Math.min(pairs, MAX_PAIR_SCORE_CACHE_SIZE));
+            similarity = pairScores.wrap(exactSimilarity);
+        } else {
+            pairScores = null;
+            similarity = exactSimilarity;
+        }
         this.graph =
                 new OnHeapGraphIndex<>(
                         M, (node, m) -> new ConcurrentNeighborSet(node, m, similarity, alpha));
@@ -159,6 +249,12 @@ public class GraphIndexBuilder<T> {
         // in scratch we store candidates in reverse order: worse candidates are first
         this.naturalScratch = PoolingSupport.newThreadBased(() -> new NodeArray(Math.max(beamWidth, M + 1)));
         this.concurrentScratch = PoolingSupport.newThreadBased(() -> new NodeArray(Math.max(beamWidth, M + 1)));
+
+        // room for every thread of the pools, and for callers of addGraphNode on their own threads
+        int threads = Math.max(Math.max(simdExecutor.getParallelism(), parallelExecutor.getParallelism()),
+                               Runtime.getRuntime().availableProcessors());
+        this.insertionsInProgress = new InProgressInsertions(Math.max(MIN_INSERTION_SLOTS, 2 * threads));
+        this.inProgressScratch = PoolingSupport.newThreadBased(() -> new int[insertionsInProgress.capacity()]);
     }
 
     public OnHeapGraphIndex<T> build() {
@@ -208,14 +304,213 @@ public class GraphIndexBuilder<T> {
         })).join();
 
         // reconnect any orphaned nodes.  this will maintain neighbors size
-        reconnectOrphanedNodes();
+        reconnectOrphanedNodes(similarity);
 
         // optimize entry node
         graph.updateEntryNode(approximateMedioid());
         updateEntryNodeIn.set(graph.size()); // in case the user goes on to add more nodes after cleanup()
+
+        if (hierarchyEnabled) {
+            graph.updateHierarchy(buildHierarchy());
+        }
+        graph.updateEntryPoints(entryPointCount > 0 ? selectEntryPoints(entryPointCount) : new int[0]);
+    }
+
+    /**
+     * Rescores every node's neighbors against exactVectors, and selects the diverse ones again using those
+     * scores.  This is for graphs built from approximate vectors, such as
+     * {@link io.github.jbellis.jvector.pq.DecodedVectorValues}, where quantization error misorders the
+     * neighbors and prunes the wrong ones.
+     * <p>
+     * This only chooses among the edges the graph already has, so it cannot add a true neighbor that the
+     * approximate build missed.  See {@link #refineNeighbors(RandomAccessVectorValues, int)} to also search
+     * for those.
+     * <p>
+     * Only the vectors of one node and its neighbors are needed at a time, so exactVectors may read them from
+     * disk.  The refined neighbor lists use exactVectors for any later diversity checks, so call this after
+     * cleanup(), once the graph is complete.  Should not be called during concurrent modifications to the graph.
+     */
+    public void refineNeighbors(RandomAccessVectorValues<T> exactVectors) {
+        refineNeighbors(exactVectors, 0);
+    }
+
+    /**
+     * As {@link #refineNeighbors(RandomAccessVectorValues)}, but also searches the graph for each node with
+     * the exact vectors, using the given beam width, and considers the results along with the node's existing
+     * neighbors.  This can recover neighbors that quantization error hid from the approximate build, at the
+     * cost of a search, reading the vectors of every node it visits, per node.
+     *
+     * @param searchBeamWidth the beam width of the exact search for each node, or 0 not to search
+     */
+    public void refineNeighbors(RandomAccessVectorValues<T> exactVectors, int searchBeamWidth) {
+        if (searchBeamWidth < 0) {
+            throw new IllegalArgumentException("searchBeamWidth must not be negative, got " + searchBeamWidth);
+        }
+        var exact = exactVectors.isValueShared() ? PoolingSupport.newThreadBased(exactVectors::copy) : PoolingSupport.newNoPooling(exactVectors);
+        var exactCopy = exactVectors.isValueShared() ? PoolingSupport.newThreadBased(exactVectors::copy) : PoolingSupport.newNoPooling(exactVectors);
+        var exactSimilarity = similarityOver(exact, exactCopy);
+
+        simdExecutor.submit(() -> IntStream.range(0, graph.getIdUpperBound()).parallel().forEach(node -> {
+            var neighbors = graph.getNeighbors(node);
+            if (neighbors == null) {
+                return;
+            }
+            var current = neighbors.getCurrent();
+            var scoreFunction = exactSimilarity.scoreProvider(node);
+            var candidates = new NodeArray(current.size() + searchBeamWidth);
+            for (int i = 0; i < current.size(); i++) {
+                candidates.insertSorted(current.node[i], scoreFunction.similarityTo(current.node[i]));
+            }
+            if (searchBeamWidth > 0) {
+                try (var gs = graphSearcher.get()) {
+                    var result = gs.get().searchInternal(scoreFunction, null, searchBeamWidth, 0.0f, graph.entry(), createNotSelfBits(node));
+                    for (var ns : result.getNodes()) {
+                        // an existing neighbor has the same exact score, so insertSorted skips it
+                        candidates.insertSorted(ns.node, ns.score);
+                    }
+                }
+            }
+            var refined = new ConcurrentNeighborSet(node, graph.maxDegree(), exactSimilarity, alpha);
+            refined.insertDiverse(candidates, NodeArray.EMPTY);
+            graph.addNode(node, refined);
+        })).join();
+
+        // the exact scores may prune edges that the approximate ones kept.  the new edges are scored
+        // with the exact vectors too, so that every neighbor list stays ordered by exact score
+        reconnectOrphanedNodes(exactSimilarity);
     }
 
-    private void reconnectOrphanedNodes() {
+    /**
+     * Sets the number of cluster-representative entry points that cleanup() will choose.  Searches score
+     * all of them and start from the ones closest to the query, in addition to the usual entry node,
+     * which helps on data with several distinct clusters.  The default is 0, i.e., only the entry node is used.
+     */
+    public void setEntryPointCount(int entryPointCount) {
+        if (entryPointCount < 0) {
+            throw new IllegalArgumentException("entryPointCount must not be negative");
+        }
+        this.entryPointCount = entryPointCount;
+    }
+
+    /**
+     * Clusters a sample of the vectors and picks the node closest to each centroid.
+     */
+    private int[] selectEntryPoints(int count) {
+        if (vectorEncoding != VectorEncoding.FLOAT32) {
+            // fill this in when/if we care about byte[] vectors
+            return new int[0];
+        }
+
+        // sample without replacement, with a partial Fisher-Yates shuffle
+        var nodes = graph.rawNodes();
+        int sampleSize = Math.min(nodes.length, ENTRY_POINT_SAMPLE_SIZE);
+        var R = ThreadLocalRandom.current();
+        for (int i = 0; i < sampleSize; i++) {
+            int j = i + R.nextInt(nodes.length - i);
+            int tmp = nodes[i];
+            nodes[i] = nodes[j];
+            nodes[j] = tmp;
+        }
+
+        try (var gs = graphSearcher.get();
+             var vc = vectorsCopy.get())
+        {
+            var points = new float[sampleSize][];
+            for (int i = 0; i < sampleSize; i++) {
+                points[i] = ((float[]) vc.get().vectorValue(nodes[i])).clone();
+            }
+            var clusterer = new KMeansPlusPlusClusterer(points, Math.min(count, sampleSize), VectorUtil::squareDistance);
+            var centroids = clusterer.cluster(ENTRY_POINT_KMEANS_ITERATIONS);
+
+            // search for the node closest to each centroid; distinct centroids can map to the same node
+            var entryPoints = new int[centroids.length];
+            int n = 0;
+            for (var centroid : centroids) {
+                NodeSimilarity.ExactScoreFunction scoreFunction = i -> scoreBetween(vc.get().vectorValue(i), (T) centroid);
+                var result = gs.get().searchInternal(scoreFunction, null, beamWidth, 0.0f, graph.entry(), Bits.ALL);
+                int node = result.getNodes()[0].node;
+                boolean duplicate = false;
+                for (int i = 0; i < n && !duplicate; i++) {
+                    duplicate = entryPoints[i] == node;
+                }
+                if (!duplicate) {
+                    entryPoints[n++] = node;
+                }
+            }
+            return Arrays.copyOf(entryPoints, n);
+        }
+    }
+
+    /**
+     * Builds the upper levels of the graph.  Each level is a separate graph over the nodes whose level
+     * is at least that high, built the same way as level 0 and then translated back to level 0 ordinals.
+     * Nodes added after cleanup() are only present on level 0 until the next cleanup().
+     */
+    private GraphHierarchy buildHierarchy() {
+        double levelMultiplier = 1 / Math.log(Math.max(2, M));
+        var levels = new int[graph.getIdUpperBound()];
+        int maxLevel = 0;
+        for (int node = 0; node < levels.length; node++) {
+            if (graph.containsNode(node)) {
+                levels[node] = levelFor(node, levelMultiplier);
+                maxLevel = Math.max(maxLevel, levels[node]);
+            }
+        }
+        if (maxLevel == 0) {
+            return GraphHierarchy.EMPTY;
+        }
+
+        var levelNodes = new int[maxLevel][];
+        var levelNeighbors = new int[maxLevel][][];
+        int entryNode = -1;
+        for (int level = 1; level <= maxLevel; level++) {
+            // nodes are added in increasing order, so each level's node array is sorted
+            int finalLevel = level;
+            var nodes = IntStream.range(0, levels.length)
+                    .filter(node -> graph.containsNode(node) && levels[node] >= finalLevel)
+                    .toArray();
+            var levelBuilder = new GraphIndexBuilder<>(new LevelVectorValues<>(vectorValues, nodes),
+                                                       vectorEncoding, similarityFunction, M, beamWidth,
+                                                       neighborOverflow, alpha, simdExecutor, parallelExecutor);
+            var levelGraph = levelBuilder.build();
+            var neighbors = new int[nodes.length][];
+            for (int i = 0; i < nodes.length; i++) {
+                var it = levelGraph.getNeighbors(i).iterator();
+                neighbors[i] = new int[it.size()];
+                for (int j = 0; j < neighbors[i].length; j++) {
+                    neighbors[i][j] = nodes[it.nextInt()];
+                }
+            }
+            levelNodes[level - 1] = nodes;
+            levelNeighbors[level - 1] = neighbors;
+            entryNode = nodes[levelGraph.entry()];
+        }
+        return new GraphHierarchy(entryNode, levelNodes, levelNeighbors);
+    }
+
+    /**
+     * @return the level of the given node in the hierarchy, from the geometric distribution used by HNSW.
+     * The level is derived from a hash of the node id rather than from a random number generator,
+     * so that rebuilding the hierarchy leaves existing nodes on the same levels.
+     */
+    static int levelFor(int node, double levelMultiplier) {
+        // murmur3 finalizer
+        long h = node * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        // uniform in (0, 1]
+        double u = ((h >>> 11) + 1) * 0x1.0p-53;
+        return (int) (-Math.log(u) * levelMultiplier);
+    }
+
+    /**
+     * @param edgeSimilarity scores the edges added to reconnect orphans, so that they are on the same scale
+     *                       as the neighbor lists they are added to
+     */
+    private void reconnectOrphanedNodes(NodeSimilarity edgeSimilarity) {
         // It's possible that reconnecting one node will result in disconnecting another, since we are maintaining
         // the maxConnections invariant.  In an extreme case, reconnecting node X disconnects Y, and reconnecting
         // Y disconnects X again.  So we do a best effort of 3 loops.
@@ -247,7 +542,7 @@ public class GraphIndexBuilder<T> {
                         // overwritten by the next node to need reconnection if we don't enforce uniqueness)
                         for (var ns : result) {
                             if (connectionTargets.add(ns.node)) {
-                                graph.getNeighbors(ns.node).insertNotDiverse(node, ns.score, true);
+                                graph.getNeighbors(ns.node).insertNotDiverse(node, edgeSimilarity.score(ns.node, node), true);
                                 break;
                             }
                         }
@@ -291,8 +586,8 @@ public class GraphIndexBuilder<T> {
     /**
      * Inserts a node with the given vector value to the graph.
      *
-     * <p>To allow correctness under concurrency, we track in-progress updates in a
-     * ConcurrentSkipListSet. After adding ourselves, we take a snapshot of this set, and consider all
+     * <p>To allow correctness under concurrency, we track in-progress updates in an
+     * {@link InProgressInsertions}. After adding ourselves, we take a snapshot of it, and consider all
      * other in-progress updates as neighbor candidates.
      *
      * @param node    the node ID to add
@@ -306,13 +601,16 @@ public class GraphIndexBuilder<T> {
         // the in-progress set doesn't have to worry about uninitialized neighbor sets
         var newNodeNeighbors = graph.addNode(node);
 
-        insertionsInProgress.add(node);
-        ConcurrentSkipListSet<Integer> inProgressBefore = insertionsInProgress.clone();
+        int slot = insertionsInProgress.add(node);
         try (var gs = graphSearcher.get();
              var vc = vectorsCopy.get();
              var naturalScratchPooled = naturalScratch.get();
-             var concurrentScratchPooled = concurrentScratch.get())
+             var concurrentScratchPooled = concurrentScratch.get();
+             var inProgressPooled = inProgressScratch.get())
         {
+            int[] inProgressBefore = inProgressPooled.get();
+            int inProgressCount = insertionsInProgress.snapshot(inProgressBefore);
+
             // find ANN of the new node by searching the graph
             int ep = graph.entry();
             NodeSimilarity.ExactScoreFunction scoreFunction = i -> scoreBetween(vc.get().vectorValue(i), value);
@@ -329,13 +627,13 @@ public class GraphIndexBuilder<T> {
             // farther away than the ones in the topK, would not change the result.)
             // TODO if we made NeighborArray an interface we could wrap the NodeScore[] directly instead of copying
             var natural = toScratchCandidates(result.getNodes(), result.getNodes().length, naturalScratchPooled.get());
-            var concurrent = getConcurrentCandidates(node, inProgressBefore, concurrentScratchPooled.get(), vectors, vc.get());
+            var concurrent = getConcurrentCandidates(node, inProgressBefore, inProgressCount, concurrentScratchPooled.get(), vectors, vc.get());
             updateNeighbors(newNodeNeighbors, natural, concurrent);
 
             maybeUpdateEntryPoint(node);
             maybeImproveOlderNode();
         } finally {
-            insertionsInProgress.remove(node);
+            insertionsInProgress.remove(slot);
         }
 
         return graph.ramBytesUsedOneNode(0);
@@ -395,6 +693,25 @@ public class GraphIndexBuilder<T> {
         }
     }
 
+    /**
+     * Adds a node with the given neighbors instead of searching the graph for them, e.g. to seed the graph
+     * with the adjacency of an existing index.  No backlinks are added, so the neighbors should be seeded
+     * the same way; {@link #improveConnections} can then connect the node to the rest of the graph.
+     *
+     * @param node      the node ID to add
+     * @param neighbors the IDs of its neighbors, which need not have been added yet
+     * @param count     the number of neighbors in the array
+     */
+    public void addGraphNodeWithNeighbors(int node, int[] neighbors, int count) {
+        var scoreFunction = similarity.scoreProvider(node);
+        var scored = new NodeArray(Math.max(count, graph.maxDegree()));
+        for (int i = 0; i < count; i++) {
+            scored.insertSorted(neighbors[i], scoreFunction.similarityTo(neighbors[i]));
+        }
+        graph.addNode(node, new ConcurrentNeighborSet(node, graph.maxDegree(), similarity, alpha, scored));
+        graph.maybeSetInitialEntryNode(node);
+    }
+
     public void markNodeDeleted(int node) {
         graph.markDeleted(node);
     }
@@ -418,6 +735,10 @@ public class GraphIndexBuilder<T> {
             assert success : String.format("Node %d marked deleted but not present", i);
         }
         var liveNodes = graph.rawNodes();
+        // the ordinals of the removed nodes may be reused for different vectors
+        if (pairScores != null) {
+            pairScores.clear();
+        }
 
         // remove deleted nodes from neighbor lists.  If neighbor count drops below a minimum,
         // add random connections to preserve connectivity
@@ -552,13 +873,15 @@ public class GraphIndexBuilder<T> {
     }
 
     private NodeArray getConcurrentCandidates(int newNode,
-                                              Set<Integer> inProgress,
+                                              int[] inProgress,
+                                              int inProgressCount,
                                               NodeArray scratch,
                                               RandomAccessVectorValues<T> values,
                                               RandomAccessVectorValues<T> valuesCopy)
     {
         scratch.clear();
-        for (var n : inProgress) {
+        for (int i = 0; i < inProgressCount; i++) {
+            int n = inProgress[i];
             if (n != newNode) {
                 scratch.insertSorted(
                         n,
@@ -568,6 +891,19 @@ public class GraphIndexBuilder<T> {
         return scratch;
     }
 
+    /**
+     * @return a NodeSimilarity that compares vectors from the two sources, which must not share values
+     */
+    private NodeSimilarity similarityOver(PoolingSupport<RandomAccessVectorValues<T>> vectors,
+                                          PoolingSupport<RandomAccessVectorValues<T>> vectorsCopy) {
+        return node1 -> {
+            try (var v = vectors.get(); var vc = vectorsCopy.get()) {
+                T v1 = v.get().vectorValue(node1);
+                return (NodeSimilarity.ExactScoreFunction) node2 -> scoreBetween(v1, vc.get().vectorValue(node2));
+            }
+        };
+    }
+
     protected float scoreBetween(T v1, T v2) {
         return scoreBetween(vectorEncoding, similarityFunction, v1, v2);
     }
@@ -584,6 +920,44 @@ public class GraphIndexBuilder<T> {
         }
     }
 
+    /**
+     * The vectors of the nodes on one upper level of the hierarchy, renumbered densely.
+     */
+    private static class LevelVectorValues<T> implements RandomAccessVectorValues<T> {
+        private final RandomAccessVectorValues<T> ravv;
+        private final int[] nodes;
+
+        LevelVectorValues(RandomAccessVectorValues<T> ravv, int[] nodes) {
+            this.ravv = ravv;
+            this.nodes = nodes;
+        }
+
+        @Override
+        public int size() {
+            return nodes.length;
+        }
+
+        @Override
+        public int dimension() {
+            return ravv.dimension();
+        }
+
+        @Override
+        public T vectorValue(int targetOrd) {
+            return ravv.vectorValue(nodes[targetOrd]);
+        }
+
+        @Override
+        public boolean isValueShared() {
+            return ravv.isValueShared();
+        }
+
+        @Override
+        public RandomAccessVectorValues<T> copy() {
+            return new LevelVectorValues<>(ravv.copy(), nodes);
+        }
+    }
+
     private static class ExcludingBits implements Bits {
         private final int excluded;
 
@@ -34,8 +34,11 @@ import io.github.jbellis.jvector.util.SparseFixedBitSet;
 import io.github.jbellis.jvector.vector.VectorEncoding;
 import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
 
 import static java.lang.Math.min;
 
@@ -45,6 +48,27 @@ import static java.lang.Math.min;
  * search algorithm, see {@link GraphIndex}.
  */
 public class GraphSearcher<T> {
+    // the number of entry points, in addition to the entry node, that each search starts from
+    private static final int ENTRY_POINT_SEEDS = 3;
+
+    // with adaptive filtering, the least and most ordinals sampled to estimate the selectivity of a filter;
+    // the estimated number of accepted nodes at or below which they are all scored instead of searching the graph;
+    // the number of accepted nodes, and of ordinals checked one at a time, after which scoring them all is
+    // abandoned for a graph search; and the selectivity below which the search only expands accepted nodes,
+    // passing through rejected ones
+    private static final int SELECTIVITY_SAMPLE_SIZE = 1024;
+    private static final int MAX_SELECTIVITY_SAMPLE_SIZE = 16384;
+    private static final int EXHAUSTIVE_SEARCH_LIMIT = 1024;
+    private static final int EXHAUSTIVE_SCORE_LIMIT = 4 * EXHAUSTIVE_SEARCH_LIMIT;
+    private static final int EXHAUSTIVE_SCAN_LIMIT = 1 << 20;
+    private static final double TWO_HOP_SELECTIVITY = 0.2;
+
+    /**
+     * The default number of consecutive candidates outside the range that {@link #searchRange} expands
+     * before giving up on finding more nodes in it.
+     */
+    public static final int RANGE_SEARCH_PATIENCE = 64;
+
 
     private final GraphIndex.View<T> view;
 
@@ -56,15 +80,59 @@ public class GraphSearcher<T> {
 
     private final BitSet visited;
 
+    /**
+     * Scratch data structures for {@link #searchBatch}, one per query slot.  Grown as needed
+     * and reused across batches.
+     */
+    private NodeQueue[] batchCandidates = new NodeQueue[0];
+    private BitSet[] batchVisited = new BitSet[0];
+
+    private final Supplier<BitSet> visitedFactory;
+
+    // the number of candidates, after the one being expanded, whose neighbors are prefetched
+    private final int prefetchDepth;
+    // the nodes already passed to prefetch during the current search; null if prefetching is disabled
+    private final BitSet hinted;
+
+    // see Builder.withAdaptiveFiltering
+    private final boolean adaptiveFiltering;
+
+    /**
+     * Creates a new graph searcher.
+     *
+     * @param visitedFactory creates bit sets that will track nodes that have already been visited
+     */
+    GraphSearcher(GraphIndex.View<T> view, Supplier<BitSet> visitedFactory) {
+        this(view, visitedFactory, 0);
+    }
+
+    /**
+     * Creates a new graph searcher.
+     *
+     * @param visitedFactory creates bit sets that will track nodes that have already been visited
+     * @param prefetchDepth the number of upcoming candidates to pass to {@link GraphIndex.View#prefetch}
+     *                      before each expansion
+     */
+    GraphSearcher(GraphIndex.View<T> view, Supplier<BitSet> visitedFactory, int prefetchDepth) {
+        this(view, visitedFactory, prefetchDepth, false);
+    }
+
     /**
      * Creates a new graph searcher.
      *
-     * @param visited bit set that will track nodes that have already been visited
+     * @param visitedFactory creates bit sets that will track nodes that have already been visited
+     * @param prefetchDepth the number of upcoming candidates to pass to {@link GraphIndex.View#prefetch}
+     *                      before each expansion
+     * @param adaptiveFiltering whether {@link #search} picks a strategy based on the selectivity of acceptOrds
      */
-    GraphSearcher(GraphIndex.View<T> view, BitSet visited) {
+    GraphSearcher(GraphIndex.View<T> view, Supplier<BitSet> visitedFactory, int prefetchDepth, boolean adaptiveFiltering) {
         this.view = view;
+        this.prefetchDepth = prefetchDepth;
+        this.adaptiveFiltering = adaptiveFiltering;
         this.candidates = new NodeQueue(new GrowableLongHeap(100), NodeQueue.Order.MAX_HEAP);
-        this.visited = visited;
+        this.visitedFactory = visitedFactory;
+        this.visited = visitedFactory.get();
+        this.hinted = prefetchDepth > 0 ? visitedFactory.get() : null;
     }
 
     /**
@@ -90,6 +158,8 @@ public class GraphSearcher<T> {
     public static class Builder<T> {
         private final GraphIndex.View<T> view;
         private boolean concurrent;
+        private int prefetchDepth;
+        private boolean adaptiveFiltering;
 
         public Builder(GraphIndex.View<T> view) {
             this.view = view;
@@ -100,10 +170,35 @@ public class GraphSearcher<T> {
             return this;
         }
 
+        /**
+         * Before expanding each candidate, hint to the view that the neighbors of the next
+         * <code>depth</code> candidates will be needed soon, so that a view backed by slow storage
+         * can overlap loading them with scoring the current one.  Disabled (0) by default.
+         */
+        public Builder<T> withPrefetch(int depth) {
+            if (depth < 0) {
+                throw new IllegalArgumentException("Prefetch depth must be non-negative, got " + depth);
+            }
+            this.prefetchDepth = depth;
+            return this;
+        }
+
+        /**
+         * Makes {@link #search} adapt to the selectivity of acceptOrds, estimated from a sample of the ordinals,
+         * so that heavily filtered searches do not have to walk most of the graph to find topK acceptable nodes.
+         * When only a few nodes are accepted, they are all scored instead of searching the graph.  When a small
+         * fraction are, only accepted nodes are scored and expanded; rejected neighbors are passed through to
+         * reach the accepted nodes beyond them.  Otherwise the search proceeds as usual.  Batch searches are
+         * not affected.
+         */
+        public Builder<T> withAdaptiveFiltering() {
+            this.adaptiveFiltering = true;
+            return this;
+        }
+
         public GraphSearcher<T> build() {
             int size = view.getIdUpperBound();
-            BitSet bits = concurrent ? new GrowableBitSet(size) : new SparseFixedBitSet(size);
-            return new GraphSearcher<>(view, bits);
+            return new GraphSearcher<>(view, () -> concurrent ? new GrowableBitSet(size) : new SparseFixedBitSet(size), prefetchDepth, adaptiveFiltering);
         }
     }
 
@@ -118,6 +213,7 @@ public class GraphSearcher<T> {
      *                      It is caller's responsibility to ensure that there are enough acceptable nodes
      *                      that we don't search the entire graph trying to satisfy topK.
      * @return a SearchResult containing the topK results and the number of nodes visited during the search.
+     * @see #searchRange
      */
     @Experimental
     public SearchResult search(NodeSimilarity.ScoreFunction scoreFunction,
@@ -125,7 +221,135 @@ public class GraphSearcher<T> {
                                int topK,
                                float threshold,
                                Bits acceptOrds) {
-        return searchInternal(scoreFunction, reRanker, topK, threshold, view.entryNode(), acceptOrds);
+        checkSearchArguments(scoreFunction, reRanker, acceptOrds);
+
+        prepareScratchState(candidates, visited, view.size());
+        if (view.entryNode() < 0) {
+            return new SearchResult(new SearchResult.NodeScore[0], visited, 0);
+        }
+
+        boolean twoHop = false;
+        if (adaptiveFiltering && !(acceptOrds instanceof Bits.MatchAllBits)) {
+            int upperBound = view.getIdUpperBound();
+            var estimate = estimateSelectivity(acceptOrds, upperBound);
+            if (estimate.upper * upperBound <= EXHAUSTIVE_SEARCH_LIMIT) {
+                var result = searchExhaustively(scoreFunction, reRanker, topK, threshold, acceptOrds, upperBound);
+                if (result != null) {
+                    return result;
+                }
+                // the filter accepted more nodes than the sample suggested
+                prepareScratchState(candidates, visited, view.size());
+                twoHop = true;
+            } else {
+                twoHop = estimate.selectivity < TWO_HOP_SELECTIVITY;
+            }
+        }
+
+        var state = new SearchState(candidates, visited, scoreFunction, topK, threshold, acceptOrds, twoHop);
+        state.seedFromEntry();
+        return state.run(reRanker);
+    }
+
+    /**
+     * Estimates the fraction of the live ordinals below upperBound that acceptOrds accepts from a sample of them.
+     * The sample is a low-discrepancy sequence, so that it is spread evenly over the ordinals without aliasing
+     * with filters that accept ordinals at regular intervals.  It grows with the graph, up to a limit, so that
+     * a sample with no accepted ordinals can still bound the number of accepted nodes below EXHAUSTIVE_SEARCH_LIMIT.
+     */
+    private SelectivityEstimate estimateSelectivity(Bits acceptOrds, int upperBound) {
+        var accepted = Bits.intersectionOf(acceptOrds, view.liveNodes());
+        int wanted = (int) Math.min(MAX_SELECTIVITY_SAMPLE_SIZE, 4L * upperBound / EXHAUSTIVE_SEARCH_LIMIT);
+        int samples = min(Math.max(SELECTIVITY_SAMPLE_SIZE, wanted), upperBound);
+        int hits = 0;
+        for (int i = 0; i < samples; i++) {
+            // the fractional part of i times the golden ratio, scaled to the ordinals
+            double fraction = ((i * 0x9E3779B97F4A7C15L) >>> 11) * 0x1.0p-53;
+            if (accepted.get((int) (fraction * upperBound))) {
+                hits++;
+            }
+        }
+        if (samples == 0) {
+            return new SelectivityEstimate(0, 0);
+        }
+        // an approximate 95% upper confidence bound on the number of hits, treating them as Poisson;
+        // with no hits it is 4, so a filter is not taken to accept nothing merely because the sample missed it
+        double upperHits = hits + 2 + 2 * Math.sqrt(hits + 1);
+        return new SelectivityEstimate((double) hits / samples, Math.min(1.0, upperHits / samples));
+    }
+
+    private static final class SelectivityEstimate {
+        private final double selectivity;
+        private final double upper;
+
+        private SelectivityEstimate(double selectivity, double upper) {
+            this.selectivity = selectivity;
+            this.upper = upper;
+        }
+    }
+
+    /**
+     * Scores every accepted node, for filters that accept too few nodes for a graph search to find them
+     * efficiently.  acceptOrds must only accept ordinals of nodes in the graph.
+     *
+     * @return the results, or null if the filter turned out to accept more than EXHAUSTIVE_SCORE_LIMIT nodes,
+     * or is not a BitSet and would have to be checked at more than EXHAUSTIVE_SCAN_LIMIT ordinals.  The caller
+     * should then search the graph instead.
+     */
+    private SearchResult searchExhaustively(NodeSimilarity.ScoreFunction scoreFunction,
+                                            NodeSimilarity.ReRanker reRanker,
+                                            int topK,
+                                            float threshold,
+                                            Bits acceptOrds,
+                                            int upperBound)
+    {
+        // other filters are checked one ordinal at a time, so scanning all of a large graph costs more than searching it
+        if (!(acceptOrds instanceof BitSet) && upperBound > EXHAUSTIVE_SCAN_LIMIT) {
+            return null;
+        }
+        var accepted = Bits.intersectionOf(acceptOrds, view.liveNodes());
+        var resultsQueue = new NodeQueue(new BoundedLongHeap(min(1024, topK), topK), NodeQueue.Order.MIN_HEAP);
+        int scored = 0;
+        for (int node = nextAccepted(acceptOrds, accepted, 0, upperBound);
+             node < upperBound;
+             node = nextAccepted(acceptOrds, accepted, node + 1, upperBound))
+        {
+            if (scored == EXHAUSTIVE_SCORE_LIMIT) {
+                return null;
+            }
+            float score = scoreFunction.similarityTo(node);
+            visited.set(node);
+            scored++;
+            if (score >= threshold) {
+                resultsQueue.push(node, score);
+            }
+        }
+        return new SearchResult(extractScores(scoreFunction, reRanker, resultsQueue), visited, scored);
+    }
+
+    /**
+     * @return the first ordinal at or after `from` that is accepted, or upperBound if there is none.
+     * If acceptOrds is a BitSet, rejected ordinals are skipped a word at a time.
+     */
+    static int nextAccepted(Bits acceptOrds, Bits accepted, int from, int upperBound) {
+        if (acceptOrds instanceof BitSet) {
+            var bits = (BitSet) acceptOrds;
+            int end = min(upperBound, bits.length());
+            while (from < end) {
+                int next = bits.nextSetBit(from);
+                if (next >= end) {
+                    break;
+                }
+                if (accepted.get(next)) {
+                    return next;
+                }
+                from = next + 1;
+            }
+            return upperBound;
+        }
+        while (from < upperBound && !accepted.get(from)) {
+            from++;
+        }
+        return from;
     }
 
     /**
@@ -147,6 +371,123 @@ public class GraphSearcher<T> {
         return search(scoreFunction, reRanker, topK, 0.0f, acceptOrds);
     }
 
+    /**
+     * Finds all the nodes whose similarity to the query is at least threshold, passing them to the collector
+     * as they are found instead of collecting the best topK.  The search expands the closest candidates first,
+     * and stops once it has expanded {@link #RANGE_SEARCH_PATIENCE} candidates in a row outside the range
+     * without reaching one inside it.  Like {@link #search}, it is approximate: nodes in the range that are
+     * only connected to it through many nodes outside of it may be missed.
+     * <p>
+     * A {@link RangeCollector.Buffer} reused across searches collects the results without allocating.
+     *
+     * @param scoreFunction a function returning the similarity of a given node to the query vector
+     * @param reRanker      if scoreFunction is approximate, this should be non-null and compute exact
+     *                      similarities; nodes are only collected if their exact similarity is in range
+     * @param threshold     the minimum similarity of the nodes to collect
+     * @param acceptOrds    a Bits instance indicating which nodes are acceptable results.
+     *                      If {@link Bits#ALL}, all nodes are acceptable.
+     * @param collector     receives each node in range with its (exact) similarity, and may stop the search
+     * @return the number of nodes visited during the search
+     */
+    public int searchRange(NodeSimilarity.ScoreFunction scoreFunction,
+                           NodeSimilarity.ReRanker reRanker,
+                           float threshold,
+                           Bits acceptOrds,
+                           RangeCollector collector)
+    {
+        return searchRange(scoreFunction, reRanker, threshold, acceptOrds, collector, RANGE_SEARCH_PATIENCE);
+    }
+
+    /**
+     * As {@link #searchRange(NodeSimilarity.ScoreFunction, NodeSimilarity.ReRanker, float, Bits, RangeCollector)},
+     * stopping after `patience` consecutive expansions outside the range instead of the default.  Higher values
+     * find more of the range at the cost of visiting more nodes.
+     */
+    public int searchRange(NodeSimilarity.ScoreFunction scoreFunction,
+                           NodeSimilarity.ReRanker reRanker,
+                           float threshold,
+                           Bits acceptOrds,
+                           RangeCollector collector,
+                           int patience)
+    {
+        checkSearchArguments(scoreFunction, reRanker, acceptOrds);
+        if (patience < 0) {
+            throw new IllegalArgumentException("patience must be non-negative, got " + patience);
+        }
+
+        prepareScratchState(candidates, visited, view.size());
+        if (view.entryNode() < 0) {
+            return 0;
+        }
+
+        // there are no results to bound the candidates by, so every visited node may become one
+        var state = new SearchState(candidates, visited, scoreFunction, 1, threshold, acceptOrds, false, new ScoreTracker.NoOpTracker());
+        state.seedFromEntry();
+        return state.runRange(reRanker, collector, patience);
+    }
+
+    /**
+     * Searches for the nearest neighbors of several queries at once.  Scratch state is shared with
+     * other batches performed by this searcher, and the graph traversals of the individual queries
+     * are interleaved, one expansion at a time, so that the memory accesses of different queries
+     * can overlap.
+     * <p>
+     * When searching compressed vectors, use {@link io.github.jbellis.jvector.pq.CompressedVectors#approximateScoreFunctionsFor}
+     * to build the score functions, so that their lookup tables are computed together.
+     *
+     * @param scoreFunctions one function per query, returning the similarity of a given node to that query
+     * @param reRankers      one ReRanker per query if the scoreFunctions are approximate; may be null
+     *                       if they are all exact
+     * @param topK           the number of results to look for, per query
+     * @param acceptOrds     a Bits instance indicating which nodes are acceptable results.
+     *                       If {@link Bits#ALL}, all nodes are acceptable.
+     * @return a SearchResult for each query, in the same order as scoreFunctions.  The visited sets of
+     * these results are only valid until the next batch is searched.
+     */
+    public SearchResult[] searchBatch(List<? extends NodeSimilarity.ScoreFunction> scoreFunctions,
+                                      List<? extends NodeSimilarity.ReRanker> reRankers,
+                                      int topK,
+                                      Bits acceptOrds)
+    {
+        int n = scoreFunctions.size();
+        if (reRankers != null && reRankers.size() != n) {
+            throw new IllegalArgumentException(String.format("Got %d reRankers for %d scoreFunctions", reRankers.size(), n));
+        }
+        for (int i = 0; i < n; i++) {
+            checkSearchArguments(scoreFunctions.get(i), reRankers == null ? null : reRankers.get(i), acceptOrds);
+        }
+
+        var results = new SearchResult[n];
+        ensureBatchCapacity(n);
+        int ep = view.entryNode();
+        var states = new ArrayList<SearchState>(n);
+        for (int i = 0; i < n; i++) {
+            prepareScratchState(batchCandidates[i], batchVisited[i], view.size());
+            if (ep < 0) {
+                results[i] = new SearchResult(new SearchResult.NodeScore[0], batchVisited[i], 0);
+                states.add(null);
+                continue;
+            }
+            var state = new SearchState(batchCandidates[i], batchVisited[i], scoreFunctions.get(i), topK, 0.0f, acceptOrds, false);
+            state.seedFromEntry();
+            states.add(state);
+        }
+
+        // round-robin across the queries until all of them are complete
+        int remaining = ep < 0 ? 0 : n;
+        while (remaining > 0) {
+            for (int i = 0; i < n; i++) {
+                var state = states.get(i);
+                if (state != null && !state.expandNext()) {
+                    results[i] = state.toSearchResult(reRankers == null ? null : reRankers.get(i));
+                    states.set(i, null);
+                    remaining--;
+                }
+            }
+        }
+        return results;
+    }
+
     /**
      * Add the closest neighbors found to a priority queue (heap). These are returned in
      * proximity order -- the closest neighbor of the topK found, i.e. the one with the highest
@@ -162,6 +503,22 @@ public class GraphSearcher<T> {
                                 float threshold,
                                 int ep,
                                 Bits acceptOrds)
+    {
+        checkSearchArguments(scoreFunction, reRanker, acceptOrds);
+
+        prepareScratchState(candidates, visited, view.size());
+        if (ep < 0) {
+            return new SearchResult(new SearchResult.NodeScore[0], visited, 0);
+        }
+
+        var state = new SearchState(candidates, visited, scoreFunction, topK, threshold, acceptOrds, false);
+        state.seed(ep);
+        return state.run(reRanker);
+    }
+
+    private static void checkSearchArguments(NodeSimilarity.ScoreFunction scoreFunction,
+                                             NodeSimilarity.ReRanker reRanker,
+                                             Bits acceptOrds)
     {
         if (!scoreFunction.isExact() && reRanker == null) {
             throw new IllegalArgumentException("Either scoreFunction must be exact, or reRanker must not be null");
@@ -169,39 +526,175 @@ public class GraphSearcher<T> {
         if (acceptOrds == null) {
             throw new IllegalArgumentException("Use MatchAllBits to indicate that all ordinals are accepted, instead of null");
         }
+    }
 
-        prepareScratchState(view.size());
-        var scoreTracker = threshold > 0 ? new ScoreTracker.NormalDistributionTracker(threshold) : new ScoreTracker.NoOpTracker();
-        if (ep < 0) {
-            return new SearchResult(new SearchResult.NodeScore[0], visited, 0);
+    /**
+     * The state of a single search in progress.  searchInternal runs one of these to completion,
+     * while searchBatch advances several of them in turn.
+     */
+    private final class SearchState {
+        private final NodeQueue candidates;
+        private final BitSet visited;
+        private final NodeSimilarity.ScoreFunction scoreFunction;
+        private final int topK;
+        private final float threshold;
+        private final Bits acceptOrds;
+        private final ScoreTracker scoreTracker;
+        private final NodeQueue resultsQueue;
+        private final boolean edgeLoading;
+        // if true, only accepted nodes are scored and become candidates; see expandThroughRejected
+        private final boolean twoHop;
+        private int[] neighborScratch = new int[0];
+        // the number of similarity computations, including those made descending the upper levels and
+        // scoring entry points, so a node may be counted more than once
+        private int numVisited;
+
+        // A bound that holds the minimum similarity to the query vector that a candidate vector must
+        // have to be considered.
+        private float minAcceptedSimilarity = Float.NEGATIVE_INFINITY;
+
+        SearchState(NodeQueue candidates,
+                    BitSet visited,
+                    NodeSimilarity.ScoreFunction scoreFunction,
+                    int topK,
+                    float threshold,
+                    Bits acceptOrds,
+                    boolean twoHop)
+        {
+            this(candidates, visited, scoreFunction, topK, threshold, acceptOrds, twoHop,
+                 threshold > 0 ? new ScoreTracker.NormalDistributionTracker(threshold) : new ScoreTracker.NoOpTracker());
         }
 
-        acceptOrds = Bits.intersectionOf(acceptOrds, view.liveNodes());
+        SearchState(NodeQueue candidates,
+                    BitSet visited,
+                    NodeSimilarity.ScoreFunction scoreFunction,
+                    int topK,
+                    float threshold,
+                    Bits acceptOrds,
+                    boolean twoHop,
+                    ScoreTracker scoreTracker)
+        {
+            this.candidates = candidates;
+            this.twoHop = twoHop;
+            this.visited = visited;
+            this.scoreFunction = scoreFunction;
+            this.edgeLoading = scoreFunction.supportsEdgeLoadingSimilarity();
+            this.topK = topK;
+            this.threshold = threshold;
+            this.acceptOrds = Bits.intersectionOf(acceptOrds, view.liveNodes());
+            this.scoreTracker = scoreTracker;
+            // Threshold callers (and perhaps others) will be tempted to pass in a huge topK.
+            // Let's not allocate a ridiculously large heap up front in that scenario.
+            this.resultsQueue = new NodeQueue(new BoundedLongHeap(min(1024, topK), topK), NodeQueue.Order.MIN_HEAP);
+            if (hinted != null) {
+                // a batch shares the hints of all its queries, which is fine since they all read the same view
+                hinted.clear();
+            }
+        }
 
-        // Threshold callers (and perhaps others) will be tempted to pass in a huge topK.
-        // Let's not allocate a ridiculously large heap up front in that scenario.
-        var resultsQueue = new NodeQueue(new BoundedLongHeap(min(1024, topK), topK), NodeQueue.Order.MIN_HEAP);
-        int numVisited = 0;
+        void seed(int ep) {
+            float score = scoreFunction.similarityTo(ep);
+            visited.set(ep);
+            numVisited++;
+            candidates.push(ep, score);
+        }
 
-        float score = scoreFunction.similarityTo(ep);
-        visited.set(ep);
-        numVisited++;
-        candidates.push(ep, score);
+        /**
+         * Seeds the search from the view's entry node or, if the graph has upper levels, from the node
+         * found by descending greedily through them.  Only the final node of the descent becomes a candidate
+         * and is marked visited.  The others are counted in numVisited, since they were scored, but are
+         * deliberately left unmarked: they were not reached on level 0, and marking them would keep level 0
+         * from ever expanding them.  So a descent node that level 0 reaches later is scored and counted again.
+         */
+        void seedFromEntry() {
+            seedFromHierarchy();
+            seedFromEntryPoints();
+        }
 
-        // A bound that holds the minimum similarity to the query vector that a candidate vector must
-        // have to be considered.
-        float minAcceptedSimilarity = Float.NEGATIVE_INFINITY;
+        private void seedFromHierarchy() {
+            var hierarchy = view.hierarchy();
+            if (hierarchy.levels() == 0) {
+                seed(view.entryNode());
+                return;
+            }
+
+            int current = hierarchy.entryNode();
+            float currentScore = scoreFunction.similarityTo(current);
+            numVisited++;
+            for (int level = hierarchy.levels(); level > 0; level--) {
+                boolean improved = true;
+                while (improved) {
+                    improved = false;
+                    for (int neighbor : hierarchy.neighbors(level, current)) {
+                        float score = scoreFunction.similarityTo(neighbor);
+                        numVisited++;
+                        if (score > currentScore) {
+                            current = neighbor;
+                            currentScore = score;
+                            improved = true;
+                        }
+                    }
+                }
+            }
+            // current was already scored and counted during the descent
+            visited.set(current);
+            candidates.push(current, currentScore);
+        }
+
+        /**
+         * Scores all the graph's entry points, and adds the ones closest to the query to the candidates.
+         * The rest are left unvisited; they are unlikely to be useful starting points for this query.
+         */
+        private void seedFromEntryPoints() {
+            int[] entryPoints = view.entryPoints();
+            if (entryPoints.length == 0) {
+                return;
+            }
+
+            var scores = new float[entryPoints.length];
+            for (int i = 0; i < entryPoints.length; i++) {
+                if (visited.get(entryPoints[i])) {
+                    scores[i] = Float.NEGATIVE_INFINITY;
+                } else {
+                    scores[i] = scoreFunction.similarityTo(entryPoints[i]);
+                    numVisited++;
+                }
+            }
+            for (int n = 0; n < min(ENTRY_POINT_SEEDS, entryPoints.length); n++) {
+                int best = 0;
+                for (int i = 1; i < scores.length; i++) {
+                    if (scores[i] > scores[best]) {
+                        best = i;
+                    }
+                }
+                if (scores[best] == Float.NEGATIVE_INFINITY) {
+                    break;
+                }
+                visited.set(entryPoints[best]);
+                candidates.push(entryPoints[best], scores[best]);
+                scores[best] = Float.NEGATIVE_INFINITY;
+            }
+        }
+
+        /**
+         * Expands the best remaining candidate, if the search is not yet complete.
+         *
+         * @return false if the search is complete
+         */
+        boolean expandNext() {
+            if (candidates.size() == 0 || resultsQueue.incomplete()) {
+                return false;
+            }
 
-        while (candidates.size() > 0 && !resultsQueue.incomplete()) {
             // done when best candidate is worse than the worst result so far
             float topCandidateScore = candidates.topScore();
             if (topCandidateScore < minAcceptedSimilarity) {
-                break;
+                return false;
             }
 
             // periodically check whether we're likely to find a node above the threshold in the future
             if (scoreTracker.shouldStop(numVisited)) {
-                break;
+                return false;
             }
 
             // add the top candidate to the resultset
@@ -215,15 +708,42 @@ public class GraphSearcher<T> {
                 }
             }
 
-            // add its neighbors to the candidates queue
-            for (var it = view.getNeighborsIterator(topCandidateNode); it.hasNext(); ) {
+            expand(topCandidateNode);
+            return true;
+        }
+
+        /**
+         * Adds the unvisited neighbors of a node to the candidates queue.
+         */
+        private void expand(int node) {
+            // the remaining best candidates are likely to be expanded next; let the view start loading them.
+            // the first positions of the heap are not exactly the best ones, but they are near the top and
+            // free to find.  each node is hinted once per search, since the top changes little between expansions
+            if (hinted != null) {
+                for (int i = 0; i < min(prefetchDepth, candidates.size()); i++) {
+                    int candidate = candidates.nodeAt(i);
+                    if (!hinted.getAndSet(candidate)) {
+                        view.prefetch(candidate);
+                    }
+                }
+            }
+
+            var it = view.getNeighborsIterator(node);
+            if (twoHop) {
+                expandThroughRejected(it);
+                return;
+            }
+            // scoring all the edges at once is cheaper than scoring only the unvisited ones individually,
+            // when the data needed for it is stored next to the edges
+            float[] edgeScores = edgeLoading ? scoreFunction.edgeLoadingSimilarityTo(node) : null;
+            for (int i = 0; it.hasNext(); i++) {
                 int friendOrd = it.nextInt();
                 if (visited.getAndSet(friendOrd)) {
                     continue;
                 }
                 numVisited++;
 
-                float friendSimilarity = scoreFunction.similarityTo(friendOrd);
+                float friendSimilarity = edgeLoading ? edgeScores[i] : scoreFunction.similarityTo(friendOrd);
                 scoreTracker.track(friendSimilarity);
                 if (friendSimilarity >= minAcceptedSimilarity) {
                     candidates.push(friendOrd, friendSimilarity);
@@ -231,14 +751,100 @@ public class GraphSearcher<T> {
             }
         }
 
-        assert resultsQueue.size() <= topK;
-        SearchResult.NodeScore[] nodes = extractScores(scoreFunction, reRanker, resultsQueue);
-        return new SearchResult(nodes, visited, numVisited);
+        /**
+         * Expands the candidates best-first, passing each accepted node whose score is at least the
+         * threshold to the collector, until the collector stops the search or the search has expanded
+         * `patience` candidates in a row outside the range without getting closer to the query.
+         * While no node in range has been found, candidates that improve on the best score so far
+         * do not count against the patience, so that the search can first descend towards the query.
+         *
+         * @return the number of nodes visited
+         */
+        int runRange(NodeSimilarity.ReRanker reRanker, RangeCollector collector, int patience) {
+            float bestScore = Float.NEGATIVE_INFINITY;
+            int misses = 0;
+            while (candidates.size() > 0) {
+                float score = candidates.topScore();
+                int node = candidates.pop();
+                if (score >= threshold) {
+                    misses = 0;
+                    if (acceptOrds.get(node)) {
+                        // approximate scores only steer the traversal; the results are filtered on exact ones
+                        float exactScore = scoreFunction.isExact() ? score : reRanker.similarityTo(node);
+                        if (exactScore >= threshold && !collector.collect(node, exactScore)) {
+                            break;
+                        }
+                    }
+                } else if (score > bestScore) {
+                    misses = 0;
+                } else if (++misses > patience) {
+                    break;
+                }
+                bestScore = Math.max(bestScore, score);
+                expand(node);
+            }
+            return numVisited;
+        }
+
+        /**
+         * Adds the accepted neighbors of a node to the candidates, together with the accepted neighbors
+         * of its rejected neighbors.  Rejected nodes are neither scored nor made candidates; they are only
+         * passed through, so that the search stays on accepted nodes even when few of them are adjacent.
+         */
+        private void expandThroughRejected(NodesIterator it) {
+            // copy the neighbors, since the view may reuse the iterator's storage for the nested lookups
+            int count = it.size();
+            if (neighborScratch.length < count) {
+                neighborScratch = new int[count];
+            }
+            for (int i = 0; i < count; i++) {
+                neighborScratch[i] = it.nextInt();
+            }
+
+            for (int i = 0; i < count; i++) {
+                int friendOrd = neighborScratch[i];
+                if (acceptOrds.get(friendOrd)) {
+                    addCandidate(friendOrd);
+                } else if (!visited.getAndSet(friendOrd)) {
+                    for (var friendIt = view.getNeighborsIterator(friendOrd); friendIt.hasNext(); ) {
+                        int secondOrd = friendIt.nextInt();
+                        if (acceptOrds.get(secondOrd)) {
+                            addCandidate(secondOrd);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void addCandidate(int node) {
+            if (visited.getAndSet(node)) {
+                return;
+            }
+            numVisited++;
+            float similarity = scoreFunction.similarityTo(node);
+            scoreTracker.track(similarity);
+            if (similarity >= minAcceptedSimilarity) {
+                candidates.push(node, similarity);
+            }
+        }
+
+        SearchResult run(NodeSimilarity.ReRanker reRanker) {
+            while (expandNext()) {
+                // keep going until the search is complete
+            }
+            return toSearchResult(reRanker);
+        }
+
+        SearchResult toSearchResult(NodeSimilarity.ReRanker reRanker) {
+            assert resultsQueue.size() <= topK;
+            SearchResult.NodeScore[] nodes = extractScores(scoreFunction, reRanker, resultsQueue);
+            return new SearchResult(nodes, visited, numVisited);
+        }
     }
 
-    private static SearchResult.NodeScore[] extractScores(NodeSimilarity.ScoreFunction sf,
-                                                          NodeSimilarity.ReRanker reRanker,
-                                                          NodeQueue resultsQueue)
+    static SearchResult.NodeScore[] extractScores(NodeSimilarity.ScoreFunction sf,
+                                                  NodeSimilarity.ReRanker reRanker,
+                                                  NodeQueue resultsQueue)
     {
         SearchResult.NodeScore[] nodes;
         if (sf.isExact()) {
@@ -255,7 +861,20 @@ public class GraphSearcher<T> {
         return nodes;
     }
 
-    private void prepareScratchState(int capacity) {
+    private void ensureBatchCapacity(int n) {
+        if (batchCandidates.length >= n) {
+            return;
+        }
+        int oldLength = batchCandidates.length;
+        batchCandidates = Arrays.copyOf(batchCandidates, n);
+        batchVisited = Arrays.copyOf(batchVisited, n);
+        for (int i = oldLength; i < n; i++) {
+            batchCandidates[i] = new NodeQueue(new GrowableLongHeap(100), NodeQueue.Order.MAX_HEAP);
+            batchVisited[i] = visitedFactory.get();
+        }
+    }
+
+    private static void prepareScratchState(NodeQueue candidates, BitSet visited, int capacity) {
         candidates.clear();
         if (visited.length() < capacity) {
             // this happens during graph construction; otherwise the size of the vector values should
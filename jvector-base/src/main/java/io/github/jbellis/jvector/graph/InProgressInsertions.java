@@ -0,0 +1,108 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.graph;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Tracks the nodes whose insertion into a graph is in progress, so that concurrent inserts can consider
+ * each other as neighbor candidates.
+ * <p>
+ * Each insert occupies one slot of a fixed-size array for its duration.  Slots are claimed with a
+ * compare-and-set, starting from a slot chosen by thread, so a thread usually finds the same free slot
+ * uncontended; nothing is allocated or boxed.  If every slot is taken, {@link #add} spins until one is
+ * released, so the capacity should be at least the number of threads inserting concurrently.
+ * <p>
+ * All slot reads and writes are volatile.  An insert that adds itself and then takes a {@link #snapshot}
+ * therefore sees every other insert that added itself earlier and has not been removed; of two concurrent
+ * inserts, at least one sees the other.
+ */
+final class InProgressInsertions {
+    private static final int EMPTY = -1;
+
+    private final AtomicIntegerArray slots;
+
+    InProgressInsertions(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive, got " + capacity);
+        }
+        slots = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots.set(i, EMPTY);
+        }
+    }
+
+    /**
+     * Registers node as in progress.
+     *
+     * @return the slot it occupies, to pass to {@link #remove}
+     */
+    int add(int node) {
+        assert node >= 0 : node;
+        int capacity = slots.length();
+        int start = (int) (Thread.currentThread().getId() % capacity);
+        while (true) {
+            for (int i = 0; i < capacity; i++) {
+                int slot = (start + i) % capacity;
+                if (slots.get(slot) == EMPTY && slots.compareAndSet(slot, EMPTY, node)) {
+                    return slot;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Releases the slot returned by {@link #add}.
+     */
+    void remove(int slot) {
+        slots.set(slot, EMPTY);
+    }
+
+    /**
+     * Copies the nodes currently in progress to `nodes`, which must have at least {@link #capacity} elements.
+     *
+     * @return the number of nodes copied
+     */
+    int snapshot(int[] nodes) {
+        int count = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            int node = slots.get(i);
+            if (node != EMPTY) {
+                nodes[count++] = node;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of nodes in progress; only an estimate while inserts are running
+     */
+    int size() {
+        int count = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) != EMPTY) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+}
@@ -145,6 +145,14 @@ public class NodeQueue {
         return ns;
     }
 
+    /**
+     * Returns the node id at the given position of the heap, from 0 to size() - 1.  Positions are not
+     * sorted by score, but the lowest ones hold the best-scoring nodes after the top one.
+     */
+    public int nodeAt(int i) {
+        return decodeNodeId(heap.get(i + 1));
+    }
+
     /** Returns the top element's node id. */
     public int topNode() {
         return decodeNodeId(heap.top());
@@ -43,6 +43,23 @@ public interface NodeSimilarity {
         boolean isExact();
 
         float similarityTo(int node2);
+
+        /**
+         * @return true if edgeLoadingSimilarityTo is supported
+         */
+        default boolean supportsEdgeLoadingSimilarity() {
+            return false;
+        }
+
+        /**
+         * Scores all the neighbors of a node at once, using data stored alongside the node's edges.
+         *
+         * @return the similarity to each neighbor of the given node, in the same order as the node's
+         * neighbors iterator.  Only valid until the next call.
+         */
+        default float[] edgeLoadingSimilarityTo(int origin) {
+            throw new UnsupportedOperationException();
+        }
     }
 
     interface ExactScoreFunction extends ScoreFunction {
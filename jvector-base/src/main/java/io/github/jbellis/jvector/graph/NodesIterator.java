@@ -65,14 +65,22 @@ public abstract class NodesIterator implements PrimitiveIterator.OfInt {
 
     public static class ArrayNodesIterator extends NodesIterator {
         private final int[] nodes;
-        private int cur = 0;
+        private final int end;
+        private int cur;
 
         /** Constructor for iterator based on integer array representing nodes */
         public ArrayNodesIterator(int[] nodes, int size) {
+            this(nodes, 0, size);
+        }
+
+        /** Constructor for iterator over the nodes in a slice of an integer array */
+        public ArrayNodesIterator(int[] nodes, int offset, int size) {
             super(size);
             assert nodes != null;
-            assert size <= nodes.length;
+            assert offset + size <= nodes.length;
             this.nodes = nodes;
+            this.cur = offset;
+            this.end = offset + size;
         }
 
         public ArrayNodesIterator(int[] nodes) {
@@ -93,7 +101,7 @@ public abstract class NodesIterator implements PrimitiveIterator.OfInt {
 
         @Override
         public boolean hasNext() {
-            return cur < size;
+            return cur < end;
         }
     }
 }
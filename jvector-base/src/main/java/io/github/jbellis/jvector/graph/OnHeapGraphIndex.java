@@ -50,6 +50,12 @@ public class OnHeapGraphIndex<T> implements GraphIndex<T>, Accountable {
     // the current graph entry node on the top level. -1 if not set
     private final AtomicInteger entryPoint = new AtomicInteger(-1);
 
+    // the optional upper levels, rebuilt by GraphIndexBuilder.cleanup()
+    private volatile GraphHierarchy hierarchy = GraphHierarchy.EMPTY;
+
+    // cluster-representative entry points, chosen by GraphIndexBuilder.cleanup()
+    private volatile int[] entryPoints = new int[0];
+
     private final DenseIntMap<ConcurrentNeighborSet> nodes;
     private final BitSet deletedNodes = new SynchronizedGrowableBitSet(0);
     private final AtomicInteger maxNodeId = new AtomicInteger(-1);
@@ -131,6 +137,18 @@ public class OnHeapGraphIndex<T> implements GraphIndex<T>, Accountable {
         entryPoint.set(node);
     }
 
+    void updateHierarchy(GraphHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+    }
+
+    public GraphHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    void updateEntryPoints(int[] entryPoints) {
+        this.entryPoints = entryPoints;
+    }
+
     @Override
     public int maxDegree() {
         return maxDegree;
@@ -150,7 +168,7 @@ public class OnHeapGraphIndex<T> implements GraphIndex<T>, Accountable {
         // the main graph structure
         long total = (long) size() * RamUsageEstimator.NUM_BYTES_OBJECT_REF;
         long neighborSize = neighborsRamUsed(maxDegree()) * size();
-        return total + neighborSize + RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
+        return total + neighborSize + RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + hierarchy.ramBytesUsed();
     }
 
     public long ramBytesUsedOneNode(int nodeLevel) {
@@ -250,13 +268,23 @@ public class OnHeapGraphIndex<T> implements GraphIndex<T>, Accountable {
     }
 
     private class ConcurrentGraphIndexView implements GraphIndex.View<T> {
+        // neighbors are copied here instead of into a new array; see ConcurrentNeighborSet.iterator(int[])
+        private int[] neighborScratch = new int[maxDegree];
+
         @Override
         public T getVector(int node) {
             throw new UnsupportedOperationException("All searches done with OnHeapGraphIndex should be exact");
         }
 
+        /**
+         * @return an iterator over a consistent snapshot of the node's neighbors, valid until the next call
+         */
         public NodesIterator getNeighborsIterator(int node) {
-            return getNeighbors(node).iterator();
+            var neighbors = getNeighbors(node);
+            if (neighborScratch.length < neighbors.arrayLength()) {
+                neighborScratch = new int[neighbors.arrayLength()];
+            }
+            return neighbors.iterator(neighborScratch);
         }
 
         @Override
@@ -269,6 +297,16 @@ public class OnHeapGraphIndex<T> implements GraphIndex<T>, Accountable {
             return entryPoint.get();
         }
 
+        @Override
+        public GraphHierarchy hierarchy() {
+            return hierarchy;
+        }
+
+        @Override
+        public int[] entryPoints() {
+            return entryPoints;
+        }
+
         @Override
         public String toString() {
             return "OnHeapGraphIndexView(size=" + size() + ", entryPoint=" + entryPoint.get();
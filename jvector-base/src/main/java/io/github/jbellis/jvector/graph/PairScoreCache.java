@@ -0,0 +1,141 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.graph;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded cache of the similarity between pairs of nodes, for the diversity checks done while building
+ * a graph: as neighbor lists overflow and are pruned again, the same pairs of neighbors are compared over
+ * and over.  Similarity is symmetric, so (a, b) and (b, a) share an entry.
+ * <p>
+ * The cache is direct-mapped: each pair hashes to one entry, and a new pair simply replaces whatever was
+ * there.  An entry is two adjacent longs, the pair and a stamp holding a version and the score.  Writers
+ * claim an entry by making its version odd with a compare-and-set, and give up if another writer holds it;
+ * readers check that the stamp did not change while they read the pair.  So lookups and updates never
+ * block, and a hit always returns the score that was stored for that exact pair.
+ */
+final class PairScoreCache {
+    private final AtomicLongArray entries;
+    private final int shift;
+
+    /**
+     * @param capacity the number of pairs to hold; rounded up to a power of two
+     */
+    PairScoreCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive, got " + capacity);
+        }
+        int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(capacity - 1));
+        entries = new AtomicLongArray(2 << bits);
+        shift = 64 - bits;
+    }
+
+    /**
+     * @return the cached similarity between a and b, or NaN if it is not cached
+     */
+    float get(int a, int b) {
+        long key = key(a, b);
+        int i = index(key);
+        long stamp = entries.get(i + 1);
+        // version 0 is an entry that was never written, and an odd one is being written
+        if (version(stamp) == 0 || (version(stamp) & 1) != 0) {
+            return Float.NaN;
+        }
+        if (entries.get(i) != key || entries.get(i + 1) != stamp) {
+            return Float.NaN;
+        }
+        return Float.intBitsToFloat((int) stamp);
+    }
+
+    /**
+     * Caches the similarity between a and b, unless another thread is updating the same entry.
+     */
+    void put(int a, int b, float score) {
+        long key = key(a, b);
+        int i = index(key);
+        long stamp = entries.get(i + 1);
+        int version = version(stamp);
+        if ((version & 1) != 0 || !entries.compareAndSet(i + 1, stamp, stamp(version + 1, 0))) {
+            return;
+        }
+        entries.set(i, key);
+        entries.set(i + 1, stamp(version + 2, Float.floatToRawIntBits(score)));
+    }
+
+    /**
+     * Forgets every pair.  Not threadsafe with respect to concurrent puts.
+     */
+    void clear() {
+        for (int i = 0; i < entries.length(); i++) {
+            entries.set(i, 0);
+        }
+    }
+
+    /** the number of pairs the cache can hold */
+    int capacity() {
+        return entries.length() / 2;
+    }
+
+    /**
+     * @return a NodeSimilarity that scores pairs of nodes from this cache when it can, and with similarity otherwise
+     */
+    NodeSimilarity wrap(NodeSimilarity similarity) {
+        return node1 -> new CachedScoreFunction(node1, similarity);
+    }
+
+    private class CachedScoreFunction implements NodeSimilarity.ExactScoreFunction {
+        private final int node1;
+        private final NodeSimilarity similarity;
+        // created on the first miss, so that node1's vector is not loaded if every score is cached
+        private NodeSimilarity.ScoreFunction scoreFunction;
+
+        private CachedScoreFunction(int node1, NodeSimilarity similarity) {
+            this.node1 = node1;
+            this.similarity = similarity;
+        }
+
+        @Override
+        public float similarityTo(int node2) {
+            float score = get(node1, node2);
+            if (Float.isNaN(score)) {
+                if (scoreFunction == null) {
+                    scoreFunction = similarity.scoreProvider(node1);
+                }
+                score = scoreFunction.similarityTo(node2);
+                put(node1, node2, score);
+            }
+            return score;
+        }
+    }
+
+    private static long key(int a, int b) {
+        return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+    }
+
+    private int index(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift) << 1;
+    }
+
+    private static int version(long stamp) {
+        return (int) (stamp >>> 32);
+    }
+
+    private static long stamp(int version, int scoreBits) {
+        return ((long) version << 32) | (scoreBits & 0xFFFFFFFFL);
+    }
+}
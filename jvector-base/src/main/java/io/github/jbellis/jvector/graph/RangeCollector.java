@@ -0,0 +1,82 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.graph;
+
+import io.github.jbellis.jvector.util.ArrayUtil;
+
+/**
+ * Receives the results of a {@link GraphSearcher#searchRange} as they are found.
+ */
+@FunctionalInterface
+public interface RangeCollector {
+    /**
+     * Called once for each node found within the range, in no particular order.
+     *
+     * @return false to stop the search
+     */
+    boolean collect(int node, float score);
+
+    /**
+     * A collector that appends the results to growable arrays.  Clearing it keeps the arrays, so a
+     * Buffer that is reused across searches stops allocating once it has grown to the largest result.
+     */
+    final class Buffer implements RangeCollector {
+        private int[] nodes;
+        private float[] scores;
+        private int size;
+
+        public Buffer() {
+            this(16);
+        }
+
+        public Buffer(int initialCapacity) {
+            nodes = new int[initialCapacity];
+            scores = new float[initialCapacity];
+        }
+
+        @Override
+        public boolean collect(int node, float score) {
+            if (size == nodes.length) {
+                nodes = ArrayUtil.grow(nodes, size + 1);
+                scores = ArrayUtil.growExact(scores, nodes.length);
+            }
+            nodes[size] = node;
+            scores[size] = score;
+            size++;
+            return true;
+        }
+
+        /** @return the number of results collected */
+        public int size() {
+            return size;
+        }
+
+        /** @return the i-th node collected */
+        public int node(int i) {
+            return nodes[i];
+        }
+
+        /** @return the score of the i-th node collected */
+        public float score(int i) {
+            return scores[i];
+        }
+
+        public void clear() {
+            size = 0;
+        }
+    }
+}
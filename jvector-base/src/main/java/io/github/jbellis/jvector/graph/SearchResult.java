@@ -48,7 +48,8 @@ public final class SearchResult {
     }
 
     /**
-     * @return the total number of graph nodes visited while performing the search
+     * @return the total number of graph nodes visited while performing the search.  For graphs with upper
+     * levels this includes the nodes scored while descending through them, which may be visited again on level 0.
      */
     public int getVisitedCount() {
         return visitedCount;
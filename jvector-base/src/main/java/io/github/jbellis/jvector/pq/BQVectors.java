@@ -98,6 +98,11 @@ public class BQVectors implements CompressedVectors {
         return compressedVectors[i];
     }
 
+    @Override
+    public int count() {
+        return compressedVectors.length;
+    }
+
     @Override
     public int getOriginalSize() {
         return bq.getOriginalDimension() * Float.BYTES;
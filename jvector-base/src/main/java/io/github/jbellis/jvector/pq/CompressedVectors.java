@@ -22,6 +22,8 @@ import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
 
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public interface CompressedVectors extends Accountable {
     /** write the compressed vectors to the given DataOutput */
@@ -33,6 +35,21 @@ public interface CompressedVectors extends Accountable {
      */
     NodeSimilarity.ApproximateScoreFunction approximateScoreFunctionFor(float[] q, VectorSimilarityFunction similarityFunction);
 
+    /**
+     * @return a ScoreFunction for each of the given queries, in order.  Implementations may share work
+     * across the batch; the returned functions are intended for use with GraphSearcher.searchBatch.
+     */
+    default List<NodeSimilarity.ApproximateScoreFunction> approximateScoreFunctionsFor(List<float[]> queries, VectorSimilarityFunction similarityFunction) {
+        var functions = new ArrayList<NodeSimilarity.ApproximateScoreFunction>(queries.size());
+        for (var q : queries) {
+            functions.add(approximateScoreFunctionFor(q, similarityFunction));
+        }
+        return functions;
+    }
+
+    /** @return the number of vectors */
+    int count();
+
     /** @return the original size of the vectors, in bytes, before compression */
     int getOriginalSize();
 
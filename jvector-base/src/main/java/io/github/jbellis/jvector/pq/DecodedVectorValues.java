@@ -0,0 +1,66 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.pq;
+
+import io.github.jbellis.jvector.graph.RandomAccessVectorValues;
+
+/**
+ * Presents product-quantized vectors as the approximate float vectors they decode to.
+ * <p>
+ * Giving this to a {@link io.github.jbellis.jvector.graph.GraphIndexBuilder} builds the graph from the
+ * compressed vectors alone, so that building needs memory for the codes rather than for the original
+ * vectors.  The neighbor lists can then be rescored against the original vectors, one node at a time,
+ * with {@link io.github.jbellis.jvector.graph.GraphIndexBuilder#refineNeighbors}.
+ * <p>
+ * Each vector is decoded into a buffer that is reused by the next call, so values are shared: callers
+ * that need two vectors at once use a {@link #copy}.
+ */
+public class DecodedVectorValues implements RandomAccessVectorValues<float[]> {
+    private final PQVectors pqVectors;
+    private final float[] decoded;
+
+    public DecodedVectorValues(PQVectors pqVectors) {
+        this.pqVectors = pqVectors;
+        this.decoded = new float[pqVectors.pq.originalDimension];
+    }
+
+    @Override
+    public int size() {
+        return pqVectors.count();
+    }
+
+    @Override
+    public int dimension() {
+        return decoded.length;
+    }
+
+    @Override
+    public float[] vectorValue(int targetOrd) {
+        pqVectors.pq.decode(pqVectors.get(targetOrd), decoded);
+        return decoded;
+    }
+
+    @Override
+    public boolean isValueShared() {
+        return true;
+    }
+
+    @Override
+    public DecodedVectorValues copy() {
+        return new DecodedVectorValues(pqVectors);
+    }
+}
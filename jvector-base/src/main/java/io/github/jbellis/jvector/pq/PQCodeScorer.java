@@ -0,0 +1,79 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.pq;
+
+import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
+import io.github.jbellis.jvector.vector.VectorUtil;
+
+/**
+ * Computes approximate similarities between a query and PQ codes supplied by the caller, for codes
+ * that are not held in a PQVectors -- for instance, codes stored on disk next to the graph edges.
+ * The similarities are the same as those computed by {@link PQVectors#approximateScoreFunctionFor}.
+ */
+public final class PQCodeScorer {
+    private final ProductQuantization pq;
+    private final VectorSimilarityFunction similarityFunction;
+    private final float[] partialSums;
+    private final float[] aMagnitude; // cosine only
+    private final float bMagnitude; // cosine only
+
+    public PQCodeScorer(ProductQuantization pq, float[] query, VectorSimilarityFunction similarityFunction) {
+        this.pq = pq;
+        this.similarityFunction = similarityFunction;
+        this.partialSums = new float[pq.getSubspaceCount() * ProductQuantization.CLUSTERS];
+        float[] centeredQuery = PQDecoder.centered(pq, query);
+        switch (similarityFunction) {
+            case DOT_PRODUCT:
+            case EUCLIDEAN:
+                PQDecoder.computePartialSums(pq, new float[][] { centeredQuery }, similarityFunction, new float[][] { partialSums });
+                aMagnitude = null;
+                bMagnitude = 0;
+                break;
+            case COSINE:
+                PQDecoder.computePartialSums(pq, new float[][] { centeredQuery }, VectorSimilarityFunction.DOT_PRODUCT, new float[][] { partialSums });
+                aMagnitude = new float[partialSums.length];
+                PQDecoder.computeCentroidMagnitudes(pq, aMagnitude);
+                bMagnitude = PQDecoder.squaredMagnitude(pq, centeredQuery);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported similarity function " + similarityFunction);
+        }
+    }
+
+    /**
+     * @return the similarity between the query and the code stored in codes[offset] to
+     * codes[offset + M - 1], where M is the number of subspaces of the ProductQuantization
+     */
+    public float similarityTo(byte[] codes, int offset) {
+        int M = pq.getSubspaceCount();
+        switch (similarityFunction) {
+            case DOT_PRODUCT:
+                return (1 + VectorUtil.assembleAndSum(partialSums, ProductQuantization.CLUSTERS, codes, offset, M)) / 2;
+            case EUCLIDEAN:
+                return 1 / (1 + VectorUtil.assembleAndSum(partialSums, ProductQuantization.CLUSTERS, codes, offset, M));
+            default:
+                float sum = 0.0f;
+                float aMag = 0.0f;
+                for (int m = 0; m < M; ++m) {
+                    int i = (m * ProductQuantization.CLUSTERS) + Byte.toUnsignedInt(codes[offset + m]);
+                    sum += partialSums[i];
+                    aMag += aMagnitude[i];
+                }
+                return (1 + (float) (sum / Math.sqrt(aMag * bMagnitude))) / 2;
+        }
+    }
+}
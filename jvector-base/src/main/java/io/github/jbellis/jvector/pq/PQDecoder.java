@@ -29,27 +29,24 @@ abstract class PQDecoder implements NodeSimilarity.ApproximateScoreFunction {
         this.cv = cv;
     }
 
-    protected static abstract class CachingDecoder extends PQDecoder {
-        protected final float[] partialSums;
-
-        protected CachingDecoder(PQVectors cv, float[] query, VectorSimilarityFunction vsf) {
-            super(cv);
-            var pq = this.cv.pq;
-            partialSums = cv.reusablePartialSums();
-
-            float[] center = pq.getCenter();
-            var centeredQuery = center == null ? query : VectorUtil.sub(query, center);
-            for (var i = 0; i < pq.getSubspaceCount(); i++) {
-                int offset = pq.subvectorSizesAndOffsets[i][1];
-                int baseOffset = i * ProductQuantization.CLUSTERS;
-                for (var j = 0; j < ProductQuantization.CLUSTERS; j++) {
-                    float[] centroidSubvector = pq.codebooks[i][j];
+    /**
+     * Fills partialSums[i][m * CLUSTERS + j] with the similarity between subvector m of centeredQueries[i]
+     * and centroid j of codebook m.  Centroids are visited in the outer loop so that each is loaded
+     * once for the whole batch of queries.
+     */
+    static void computePartialSums(ProductQuantization pq, float[][] centeredQueries, VectorSimilarityFunction vsf, float[][] partialSums) {
+        for (var i = 0; i < pq.getSubspaceCount(); i++) {
+            int offset = pq.subvectorSizesAndOffsets[i][1];
+            int baseOffset = i * ProductQuantization.CLUSTERS;
+            for (var j = 0; j < ProductQuantization.CLUSTERS; j++) {
+                float[] centroidSubvector = pq.codebooks[i][j];
+                for (var q = 0; q < centeredQueries.length; q++) {
                     switch (vsf) {
                         case DOT_PRODUCT:
-                            partialSums[baseOffset + j] = VectorUtil.dotProduct(centroidSubvector, 0, centeredQuery, offset, centroidSubvector.length);
+                            partialSums[q][baseOffset + j] = VectorUtil.dotProduct(centroidSubvector, 0, centeredQueries[q], offset, centroidSubvector.length);
                             break;
                         case EUCLIDEAN:
-                            partialSums[baseOffset + j] = VectorUtil.squareDistance(centroidSubvector, 0, centeredQuery, offset, centroidSubvector.length);
+                            partialSums[q][baseOffset + j] = VectorUtil.squareDistance(centroidSubvector, 0, centeredQueries[q], offset, centroidSubvector.length);
                             break;
                         default:
                             throw new UnsupportedOperationException("Unsupported similarity function " + vsf);
@@ -57,6 +54,48 @@ abstract class PQDecoder implements NodeSimilarity.ApproximateScoreFunction {
                 }
             }
         }
+    }
+
+    /**
+     * Fills aMagnitude[m * CLUSTERS + j] with the squared magnitude of centroid j of codebook m.
+     * These do not depend on the query, so they may be shared by every query in a batch.
+     */
+    static void computeCentroidMagnitudes(ProductQuantization pq, float[] aMagnitude) {
+        for (int m = 0; m < pq.getSubspaceCount(); ++m) {
+            for (int j = 0; j < ProductQuantization.CLUSTERS; ++j) {
+                float[] centroidSubvector = pq.codebooks[m][j];
+                aMagnitude[(m * ProductQuantization.CLUSTERS) + j] = VectorUtil.dotProduct(centroidSubvector, 0, centroidSubvector, 0, centroidSubvector.length);
+            }
+        }
+    }
+
+    static float squaredMagnitude(ProductQuantization pq, float[] centeredQuery) {
+        float bMagSum = 0.0f;
+        for (int m = 0; m < pq.getSubspaceCount(); ++m) {
+            int offset = pq.subvectorSizesAndOffsets[m][1];
+            bMagSum += VectorUtil.dotProduct(centeredQuery, offset, centeredQuery, offset, pq.subvectorSizesAndOffsets[m][0]);
+        }
+        return bMagSum;
+    }
+
+    static float[] centered(ProductQuantization pq, float[] query) {
+        float[] center = pq.getCenter();
+        return center == null ? query : VectorUtil.sub(query, center);
+    }
+
+    protected static abstract class CachingDecoder extends PQDecoder {
+        protected final float[] partialSums;
+
+        protected CachingDecoder(PQVectors cv, float[] query, VectorSimilarityFunction vsf) {
+            this(cv, cv.reusablePartialSums());
+            computePartialSums(cv.pq, new float[][] { centered(cv.pq, query) }, vsf, new float[][] { partialSums });
+        }
+
+        /** Creates a decoder using partial sums that have already been computed by the caller */
+        protected CachingDecoder(PQVectors cv, float[] partialSums) {
+            super(cv);
+            this.partialSums = partialSums;
+        }
 
         protected float decodedSimilarity(byte[] encoded) {
             return VectorUtil.assembleAndSum(partialSums, ProductQuantization.CLUSTERS, encoded);
@@ -68,6 +107,11 @@ abstract class PQDecoder implements NodeSimilarity.ApproximateScoreFunction {
             super(cv, query, VectorSimilarityFunction.DOT_PRODUCT);
         }
 
+        /** Creates a decoder for the i-th query of a batch whose partial sums were computed together */
+        DotProductDecoder(PQVectors cv, float[][] batchPartialSums, int i) {
+            super(cv, batchPartialSums[i]);
+        }
+
         @Override
         public float similarityTo(int node2) {
             return (1 + decodedSimilarity(cv.get(node2))) / 2;
@@ -79,6 +123,11 @@ abstract class PQDecoder implements NodeSimilarity.ApproximateScoreFunction {
             super(cv, query, VectorSimilarityFunction.EUCLIDEAN);
         }
 
+        /** Creates a decoder for the i-th query of a batch whose partial sums were computed together */
+        EuclideanDecoder(PQVectors cv, float[][] batchPartialSums, int i) {
+            super(cv, batchPartialSums[i]);
+        }
+
         @Override
         public float similarityTo(int node2) {
             return 1 / (1 + decodedSimilarity(cv.get(node2)));
@@ -97,23 +146,18 @@ abstract class PQDecoder implements NodeSimilarity.ApproximateScoreFunction {
             // Compute and cache partial sums and magnitudes for query vector
             partialSums = cv.reusablePartialSums();
             aMagnitude = cv.reusablePartialMagnitudes();
-            float bMagSum = 0.0f;
-
-            float[] center = pq.getCenter();
-            float[] centeredQuery = center == null ? query : VectorUtil.sub(query, center);
-
-            for (int m = 0; m < pq.getSubspaceCount(); ++m) {
-                int offset = pq.subvectorSizesAndOffsets[m][1];
-                for (int j = 0; j < ProductQuantization.CLUSTERS; ++j) {
-                    float[] centroidSubvector = pq.codebooks[m][j];
-                    partialSums[(m * ProductQuantization.CLUSTERS) + j] = VectorUtil.dotProduct(centroidSubvector, 0, centeredQuery, offset, centroidSubvector.length);
-                    aMagnitude[(m * ProductQuantization.CLUSTERS) + j] = VectorUtil.dotProduct(centroidSubvector, 0, centroidSubvector, 0, centroidSubvector.length);
-                }
-
-                bMagSum += VectorUtil.dotProduct(centeredQuery, offset, centeredQuery, offset, pq.subvectorSizesAndOffsets[m][0]);
-            }
+            float[] centeredQuery = centered(pq, query);
+            computePartialSums(pq, new float[][] { centeredQuery }, VectorSimilarityFunction.DOT_PRODUCT, new float[][] { partialSums });
+            computeCentroidMagnitudes(pq, aMagnitude);
+            this.bMagnitude = squaredMagnitude(pq, centeredQuery);
+        }
 
-            this.bMagnitude = bMagSum;
+        /** Creates a decoder for the i-th query of a batch whose partial sums were computed together */
+        CosineDecoder(PQVectors cv, float[][] batchPartialSums, int i, float[] aMagnitude, float bMagnitude) {
+            super(cv);
+            this.partialSums = batchPartialSums[i];
+            this.aMagnitude = aMagnitude;
+            this.bMagnitude = bMagnitude;
         }
 
         @Override
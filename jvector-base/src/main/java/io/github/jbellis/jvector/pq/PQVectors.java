@@ -23,7 +23,9 @@ import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
 
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 
 public class PQVectors implements CompressedVectors {
@@ -31,6 +33,7 @@ public class PQVectors implements CompressedVectors {
     private final byte[][] compressedVectors;
     private final ThreadLocal<float[]> partialSums; // for dot product, euclidean, and cosine
     private final ThreadLocal<float[]> partialMagnitudes; // for cosine
+    private final ThreadLocal<float[][]> batchPartialSums; // for approximateScoreFunctionsFor
 
     public PQVectors(ProductQuantization pq, byte[][] compressedVectors)
     {
@@ -38,6 +41,7 @@ public class PQVectors implements CompressedVectors {
         this.compressedVectors = compressedVectors;
         this.partialSums = ThreadLocal.withInitial(() -> new float[pq.getSubspaceCount() * ProductQuantization.CLUSTERS]);
         this.partialMagnitudes = ThreadLocal.withInitial(() -> new float[pq.getSubspaceCount() * ProductQuantization.CLUSTERS]);
+        this.batchPartialSums = ThreadLocal.withInitial(() -> new float[0][]);
     }
 
     @Override
@@ -113,10 +117,59 @@ public class PQVectors implements CompressedVectors {
         }
     }
 
-    byte[] get(int ordinal) {
+    /**
+     * Builds the lookup tables for all the queries together, so that each centroid is loaded once per batch
+     * instead of once per query.  As with approximateScoreFunctionFor, the tables are reused by the
+     * calling thread, so the returned functions are only valid until the next batch is created on this thread.
+     */
+    @Override
+    public List<NodeSimilarity.ApproximateScoreFunction> approximateScoreFunctionsFor(List<float[]> queries, VectorSimilarityFunction similarityFunction) {
+        var centeredQueries = new float[queries.size()][];
+        for (int i = 0; i < centeredQueries.length; i++) {
+            centeredQueries[i] = PQDecoder.centered(pq, queries.get(i));
+        }
+        var sums = reusableBatchPartialSums(centeredQueries.length);
+        var decoders = new ArrayList<NodeSimilarity.ApproximateScoreFunction>(centeredQueries.length);
+        switch (similarityFunction) {
+            case DOT_PRODUCT:
+                PQDecoder.computePartialSums(pq, centeredQueries, VectorSimilarityFunction.DOT_PRODUCT, sums);
+                for (int i = 0; i < centeredQueries.length; i++) {
+                    decoders.add(new PQDecoder.DotProductDecoder(this, sums, i));
+                }
+                break;
+            case EUCLIDEAN:
+                PQDecoder.computePartialSums(pq, centeredQueries, VectorSimilarityFunction.EUCLIDEAN, sums);
+                for (int i = 0; i < centeredQueries.length; i++) {
+                    decoders.add(new PQDecoder.EuclideanDecoder(this, sums, i));
+                }
+                break;
+            case COSINE:
+                PQDecoder.computePartialSums(pq, centeredQueries, VectorSimilarityFunction.DOT_PRODUCT, sums);
+                // centroid magnitudes don't depend on the query, so the whole batch shares them
+                var aMagnitude = reusablePartialMagnitudes();
+                PQDecoder.computeCentroidMagnitudes(pq, aMagnitude);
+                for (int i = 0; i < centeredQueries.length; i++) {
+                    float bMagnitude = PQDecoder.squaredMagnitude(pq, centeredQueries[i]);
+                    decoders.add(new PQDecoder.CosineDecoder(this, sums, i, aMagnitude, bMagnitude));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported similarity function " + similarityFunction);
+        }
+        return decoders;
+    }
+
+    /**
+     * @return the encoded vector for the given ordinal.  Do not modify the returned array.
+     */
+    public byte[] get(int ordinal) {
         return compressedVectors[ordinal];
     }
 
+    public ProductQuantization getProductQuantization() {
+        return pq;
+    }
+
     float[] reusablePartialSums() {
         return partialSums.get();
     }
@@ -125,6 +178,24 @@ public class PQVectors implements CompressedVectors {
         return partialMagnitudes.get();
     }
 
+    private float[][] reusableBatchPartialSums(int n) {
+        var sums = batchPartialSums.get();
+        if (sums.length < n) {
+            int oldLength = sums.length;
+            sums = Arrays.copyOf(sums, n);
+            for (int i = oldLength; i < n; i++) {
+                sums[i] = new float[pq.getSubspaceCount() * ProductQuantization.CLUSTERS];
+            }
+            batchPartialSums.set(sums);
+        }
+        return sums;
+    }
+
+    @Override
+    public int count() {
+        return compressedVectors.length;
+    }
+
     @Override
     public int getOriginalSize() {
         return pq.originalDimension * Float.BYTES;
@@ -265,6 +265,16 @@ final class DefaultVectorUtilSupport implements VectorUtilSupport {
       return sum;
   }
 
+  @Override
+  public float assembleAndSum(float[] data, int dataBase, byte[] baseOffsets, int offset, int length)
+  {
+      float sum = 0f;
+      for (int i = 0; i < length; i++) {
+          sum += data[dataBase * i + Byte.toUnsignedInt(baseOffsets[offset + i])];
+      }
+      return sum;
+  }
+
   @Override
   public int hammingDistance(long[] v1, long[] v2) {
     int hd = 0;
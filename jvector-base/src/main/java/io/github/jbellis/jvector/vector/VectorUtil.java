@@ -239,6 +239,10 @@ public final class VectorUtil {
     return impl.assembleAndSum(data, dataBase, dataOffsets);
   }
 
+  public static float assembleAndSum(float[] data, int dataBase, byte[] dataOffsets, int offset, int length) {
+    return impl.assembleAndSum(data, dataBase, dataOffsets, offset, length);
+  }
+
   public static int hammingDistance(long[] v1, long[] v2) {
     return impl.hammingDistance(v1, v2);
   }
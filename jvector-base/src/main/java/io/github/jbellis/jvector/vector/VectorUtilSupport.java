@@ -88,5 +88,11 @@ public interface VectorUtilSupport {
    */
   public float assembleAndSum(float[] data, int baseIndex, byte[] baseOffsets);
 
+  /**
+   * As {@link #assembleAndSum(float[], int, byte[])}, but using only the `length` offsets
+   * starting at `baseOffsets[offset]`.
+   */
+  public float assembleAndSum(float[] data, int baseIndex, byte[] baseOffsets, int offset, int length);
+
   public int hammingDistance(long[] v1, long[] v2);
 }
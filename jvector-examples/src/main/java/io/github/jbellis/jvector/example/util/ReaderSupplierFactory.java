@@ -15,6 +15,7 @@
  */
 package io.github.jbellis.jvector.example.util;
 
+import io.github.jbellis.jvector.disk.MultiSegmentMappedReaderSupplier;
 import io.github.jbellis.jvector.disk.ReaderSupplier;
 import io.github.jbellis.jvector.disk.SimpleMappedReaderSupplier;
 
@@ -28,7 +29,7 @@ public class ReaderSupplierFactory {
             return new MMapReaderSupplier(path);
         } catch (UnsatisfiedLinkError|NoClassDefFoundError e) {
             if (Files.size(path) > Integer.MAX_VALUE) {
-                throw new RuntimeException("File sizes greater than 2GB are not supported on Windows--contributions welcome");
+                return new MultiSegmentMappedReaderSupplier(path);
             }
 
             return new SimpleMappedReaderSupplier(path);
@@ -0,0 +1,91 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.disk;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakScope;
+import io.github.jbellis.jvector.TestUtil;
+import io.github.jbellis.jvector.graph.GraphIndexTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+
+@ThreadLeakScope(ThreadLeakScope.Scope.NONE)
+public class TestFileChannelReader extends RandomizedTest {
+    private Path testDirectory;
+
+    @Before
+    public void setup() throws IOException {
+        testDirectory = Files.createTempDirectory(this.getClass().getSimpleName());
+    }
+
+    @After
+    public void tearDown() {
+        TestUtil.deleteQuietly(testDirectory);
+    }
+
+    @Test
+    public void testReads() throws Exception {
+        var bytes = new byte[randomIntBetween(1000, 5000)];
+        getRandom().nextBytes(bytes);
+        var path = testDirectory.resolve("data");
+        Files.write(path, bytes);
+
+        // small blocks, so that most reads need more than one
+        try (var supplier = new FileChannelReaderSupplier(path, randomIntBetween(8, 100))) {
+            TestMultiSegmentMappedReader.assertReadsMatch(supplier, bytes, getRandom());
+            // again, with a pooled buffer
+            TestMultiSegmentMappedReader.assertReadsMatch(supplier, bytes, getRandom());
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void testReadPastEnd() throws Exception {
+        var path = testDirectory.resolve("data");
+        Files.write(path, new byte[10]);
+        try (var supplier = new FileChannelReaderSupplier(path);
+             var reader = supplier.get())
+        {
+            reader.seek(8);
+            reader.readInt();
+        }
+    }
+
+    @Test
+    public void testOnDiskGraph() throws Exception {
+        var graph = new TestUtil.RandomlyConnectedGraphIndex<float[]>(1000, 16, getRandom());
+        var ravv = new GraphIndexTestCase.CircularFloatVectorValues(graph.size());
+        var path = testDirectory.resolve("graph");
+        TestUtil.writeGraph(graph, ravv, path);
+
+        try (var onDiskGraph = new OnDiskGraphIndex<float[]>(new FileChannelReaderSupplier(path), 0)) {
+            TestUtil.assertGraphEquals(graph, onDiskGraph);
+            try (var view = onDiskGraph.getView()) {
+                for (int i = 0; i < view.size(); i++) {
+                    assertArrayEquals(ravv.vectorValue(i), view.getVector(i), 0.0f);
+                }
+            }
+        }
+    }
+}
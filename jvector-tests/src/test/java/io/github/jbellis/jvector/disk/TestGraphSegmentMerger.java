@@ -0,0 +1,153 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.disk;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakScope;
+import io.github.jbellis.jvector.TestUtil;
+import io.github.jbellis.jvector.graph.GraphIndexBuilder;
+import io.github.jbellis.jvector.graph.GraphSearcher;
+import io.github.jbellis.jvector.graph.ListRandomAccessVectorValues;
+import io.github.jbellis.jvector.graph.NodeSimilarity;
+import io.github.jbellis.jvector.util.Bits;
+import io.github.jbellis.jvector.vector.VectorEncoding;
+import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@ThreadLeakScope(ThreadLeakScope.Scope.NONE)
+public class TestGraphSegmentMerger extends RandomizedTest {
+    private static final int DIMENSION = 8;
+    private static final VectorSimilarityFunction VSF = VectorSimilarityFunction.EUCLIDEAN;
+
+    private Path testDirectory;
+
+    @Before
+    public void setup() throws IOException {
+        testDirectory = Files.createTempDirectory(this.getClass().getSimpleName());
+    }
+
+    @After
+    public void tearDown() {
+        TestUtil.deleteQuietly(testDirectory);
+    }
+
+    private OnDiskGraphIndex<float[]> writeSegment(List<float[]> vectors, String name) throws IOException {
+        var ravv = new ListRandomAccessVectorValues(vectors, DIMENSION);
+        var graph = new GraphIndexBuilder<>(ravv, VectorEncoding.FLOAT32, VSF, 8, 30, 1.2f, 1.2f).build();
+        var path = testDirectory.resolve(name);
+        TestUtil.writeGraph(graph, ravv, path);
+        return new OnDiskGraphIndex<>(new SimpleMappedReaderSupplier(path), 0);
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        var segmentVectors = List.of(randomVectors(300), randomVectors(150), randomVectors(50));
+        var segments = new ArrayList<OnDiskGraphIndex<float[]>>();
+        for (int s = 0; s < segmentVectors.size(); s++) {
+            segments.add(writeSegment(segmentVectors.get(s), "segment" + s));
+        }
+        // delete every third node of the first segment
+        var kept = new Bits() {
+            @Override
+            public boolean get(int index) {
+                return index % 3 != 0;
+            }
+
+            @Override
+            public int length() {
+                return 300;
+            }
+        };
+
+        var output = testDirectory.resolve("merged");
+        int[][] ordinals;
+        try {
+            ordinals = GraphSegmentMerger.merge(segments, List.of(kept, Bits.ALL, Bits.ALL), VSF, 8, 30, 1.2f, 1.2f, output);
+        } finally {
+            for (var segment : segments) {
+                segment.close();
+            }
+        }
+
+        // the surviving nodes are numbered in order, and keep their vectors
+        var expectedVectors = new ArrayList<float[]>();
+        for (int s = 0; s < segmentVectors.size(); s++) {
+            for (int node = 0; node < segmentVectors.get(s).size(); node++) {
+                if (s == 0 && node % 3 == 0) {
+                    assertEquals(-1, ordinals[s][node]);
+                } else {
+                    assertEquals(expectedVectors.size(), ordinals[s][node]);
+                    expectedVectors.add(segmentVectors.get(s).get(node));
+                }
+            }
+        }
+
+        try (var merged = new OnDiskGraphIndex<float[]>(new SimpleMappedReaderSupplier(output), 0);
+             var view = merged.getView())
+        {
+            assertEquals(expectedVectors.size(), merged.size());
+            for (int node = 0; node < merged.size(); node++) {
+                assertArrayEquals(expectedVectors.get(node), view.getVector(node), 0.0f);
+                for (var it = view.getNeighborsIterator(node); it.hasNext(); ) {
+                    int neighbor = it.nextInt();
+                    assertTrue(neighbor >= 0 && neighbor < merged.size());
+                }
+            }
+
+            // searches find neighbors across all the inputs
+            var searcher = new GraphSearcher.Builder<>(view).build();
+            int topK = 10;
+            int matches = 0;
+            int queries = 20;
+            for (int q = 0; q < queries; q++) {
+                var query = TestUtil.randomVector(getRandom(), DIMENSION);
+                var expected = IntStream.range(0, expectedVectors.size()).boxed()
+                        .sorted(Comparator.comparingDouble(i -> -VSF.compare(query, expectedVectors.get(i))))
+                        .limit(topK)
+                        .collect(Collectors.toSet());
+                var reranker = view.rerankerFor(query, VSF);
+                NodeSimilarity.ExactScoreFunction sf = reranker::similarityTo;
+                for (var ns : searcher.search(sf, null, topK, Bits.ALL).getNodes()) {
+                    if (expected.contains(ns.node)) {
+                        matches++;
+                    }
+                }
+            }
+            double recall = (double) matches / (queries * topK);
+            assertTrue("recall " + recall, recall > 0.9);
+        }
+    }
+
+    private List<float[]> randomVectors(int count) {
+        return IntStream.range(0, count).mapToObj(i -> TestUtil.randomVector(getRandom(), DIMENSION)).collect(Collectors.toList());
+    }
+}
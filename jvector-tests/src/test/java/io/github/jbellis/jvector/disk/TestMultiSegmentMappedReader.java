@@ -0,0 +1,146 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.disk;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakScope;
+import io.github.jbellis.jvector.TestUtil;
+import io.github.jbellis.jvector.graph.GraphIndexTestCase;
+import io.github.jbellis.jvector.graph.GraphSearcher;
+import io.github.jbellis.jvector.graph.NodeSimilarity;
+import io.github.jbellis.jvector.util.Bits;
+import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+@ThreadLeakScope(ThreadLeakScope.Scope.NONE)
+public class TestMultiSegmentMappedReader extends RandomizedTest {
+    private Path testDirectory;
+
+    @Before
+    public void setup() throws IOException {
+        testDirectory = Files.createTempDirectory(this.getClass().getSimpleName());
+    }
+
+    @After
+    public void tearDown() {
+        TestUtil.deleteQuietly(testDirectory);
+    }
+
+    @Test
+    public void testReadsAcrossSegments() throws Exception {
+        var bytes = new byte[randomIntBetween(1000, 5000)];
+        getRandom().nextBytes(bytes);
+        var path = testDirectory.resolve("data");
+        Files.write(path, bytes);
+
+        // 64-byte segments, so that most reads cross at least one boundary
+        try (var supplier = new MultiSegmentMappedReaderSupplier(path, 0, 6)) {
+            assertReadsMatch(supplier, bytes, getRandom());
+        }
+    }
+
+    /**
+     * Checks random reads of every type from the supplier against the file contents
+     */
+    static void assertReadsMatch(ReaderSupplier supplier, byte[] bytes, Random random) throws IOException {
+        var expected = ByteBuffer.wrap(bytes);
+        try (var reader = supplier.get()) {
+            for (int i = 0; i < 1000; i++) {
+                int offset = random.nextInt(bytes.length);
+                int maxElements = (bytes.length - offset) / Long.BYTES;
+                int n = random.nextInt(Math.min(maxElements, 40) + 1);
+                reader.seek(offset);
+                expected.position(offset);
+                switch (random.nextInt(5)) {
+                    case 0:
+                        if (bytes.length - offset >= Integer.BYTES) {
+                            assertEquals(expected.getInt(), reader.readInt());
+                        }
+                        break;
+                    case 1:
+                        var b = new byte[n * Long.BYTES];
+                        reader.readFully(b);
+                        var expectedBytes = new byte[b.length];
+                        expected.get(expectedBytes);
+                        assertArrayEquals(expectedBytes, b);
+                        break;
+                    case 2:
+                        var f = new float[n];
+                        reader.readFully(f);
+                        var expectedFloats = new float[n];
+                        expected.asFloatBuffer().get(expectedFloats);
+                        assertArrayEquals(expectedFloats, f, 0.0f);
+                        break;
+                    case 3:
+                        var l = new long[n];
+                        reader.readFully(l);
+                        var expectedLongs = new long[n];
+                        expected.asLongBuffer().get(expectedLongs);
+                        assertArrayEquals(expectedLongs, l);
+                        break;
+                    default:
+                        int start = random.nextInt(4);
+                        var ints = new int[start + n];
+                        reader.read(ints, start, n);
+                        var expectedInts = new int[start + n];
+                        expected.asIntBuffer().get(expectedInts, start, n);
+                        assertArrayEquals(expectedInts, ints);
+                        break;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOnDiskGraph() throws Exception {
+        var graph = new TestUtil.RandomlyConnectedGraphIndex<float[]>(1000, 16, getRandom());
+        var ravv = new GraphIndexTestCase.CircularFloatVectorValues(graph.size());
+        var path = testDirectory.resolve("graph");
+        TestUtil.writeGraph(graph, ravv, path);
+
+        // the graph closes the supplier
+        try (var onDiskGraph = new OnDiskGraphIndex<float[]>(new MultiSegmentMappedReaderSupplier(path, 1, 12), 0))
+        {
+            TestUtil.assertGraphEquals(graph, onDiskGraph);
+            try (var view = onDiskGraph.getView()) {
+                for (int i = 0; i < view.size(); i++) {
+                    assertArrayEquals(ravv.vectorValue(i), view.getVector(i), 0.0f);
+                }
+
+                // prefetch hints must not change the results
+                var query = TestUtil.randomVector(getRandom(), ravv.dimension());
+                NodeSimilarity.ExactScoreFunction sf = i -> VectorSimilarityFunction.EUCLIDEAN.compare(query, ravv.vectorValue(i));
+                var expected = new GraphSearcher.Builder<>(view).build().search(sf, null, 10, Bits.ALL);
+                var actual = new GraphSearcher.Builder<>(view).withPrefetch(4).build().search(sf, null, 10, Bits.ALL);
+                assertArrayEquals(Arrays.stream(expected.getNodes()).mapToInt(ns -> ns.node).toArray(),
+                                  Arrays.stream(actual.getNodes()).mapToInt(ns -> ns.node).toArray());
+            }
+        }
+    }
+}
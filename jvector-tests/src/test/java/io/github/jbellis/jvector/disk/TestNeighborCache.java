@@ -0,0 +1,137 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.disk;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakScope;
+import io.github.jbellis.jvector.TestUtil;
+import io.github.jbellis.jvector.graph.GraphIndexTestCase;
+import io.github.jbellis.jvector.graph.NodesIterator;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@ThreadLeakScope(ThreadLeakScope.Scope.NONE)
+public class TestNeighborCache extends RandomizedTest {
+    @Test
+    public void testClockEviction() {
+        var cache = new NeighborCache(2);
+        cache.put(1, new int[] {10});
+        cache.put(2, new int[] {20});
+        assertArrayEquals(new int[] {10}, cache.get(1));
+        assertNull(cache.get(3));
+
+        // 1 was used since it was added, so 2 is evicted
+        cache.put(3, new int[] {30});
+        assertEquals(2, cache.size());
+        assertTrue(cache.contains(1));
+        assertFalse(cache.contains(2));
+        assertTrue(cache.contains(3));
+
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void testConcurrentPuts() {
+        var cache = new NeighborCache(100);
+        IntStream.range(0, 10_000).parallel().forEach(i -> {
+            var neighbors = cache.get(i % 1000);
+            if (neighbors == null) {
+                cache.put(i % 1000, new int[] {i % 1000});
+            } else {
+                // a hit never returns another node's neighbors, even while its slot is being replaced
+                assertEquals(i % 1000, neighbors[0]);
+            }
+        });
+        assertEquals(100, cache.size());
+        assertEquals(10_000, cache.hitCount() + cache.missCount());
+        for (int i = 0; i < 1000; i++) {
+            var neighbors = cache.get(i);
+            if (neighbors != null) {
+                assertEquals(i, neighbors[0]);
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentPutsOfSameNode() {
+        for (int round = 0; round < 1000; round++) {
+            // one set with room for every node, so that each should end up cached exactly once
+            var cache = new NeighborCache(8);
+            IntStream.range(0, 64).parallel().forEach(i -> cache.put(i % 4, new int[] {i % 4}));
+            assertEquals(4, cache.size());
+            for (int i = 0; i < 4; i++) {
+                assertArrayEquals(new int[] {i}, cache.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testPutIterator() {
+        var cache = new NeighborCache(8);
+        var copy = cache.put(1, new NodesIterator.ArrayNodesIterator(new int[] {10, 11, 12}, 2));
+        assertArrayEquals(new int[] {10, 11}, copy);
+        assertArrayEquals(copy, cache.get(1));
+
+        // already cached, so the iterator is left for the caller to read
+        var it = new NodesIterator.ArrayNodesIterator(new int[] {10, 11}, 2);
+        assertNull(cache.put(1, it));
+        assertFalse(cache.put(1, new int[] {10, 11}));
+        assertEquals(10, it.nextInt());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testCachingGraphIndex() throws Exception {
+        var graph = new TestUtil.RandomlyConnectedGraphIndex<float[]>(1000, 16, getRandom());
+        var ravv = new GraphIndexTestCase.CircularFloatVectorValues(graph.size());
+        var testDirectory = Files.createTempDirectory(getClass().getSimpleName());
+        try {
+            var path = testDirectory.resolve("graph");
+            TestUtil.writeGraph(graph, ravv, path);
+            try (var marr = new SimpleMappedReader(path);
+                 var cachingGraph = new CachingGraphIndex(new OnDiskGraphIndex<>(marr::duplicate, 0), 0, 100))
+            {
+                TestUtil.assertGraphEquals(graph, cachingGraph);
+                var neighborCache = cachingGraph.getNeighborCache();
+                assertEquals(100, neighborCache.size());
+
+                // a node read by one view is cached for the others
+                int node = graph.getView().entryNode() == 0 ? 1 : 0;
+                long hits = neighborCache.hitCount();
+                try (var view1 = cachingGraph.getView();
+                     var view2 = cachingGraph.getView())
+                {
+                    var expected = TestUtil.getNeighborNodes(graph.getView(), node);
+                    assertEquals(expected, TestUtil.getNeighborNodes(view1, node));
+                    assertEquals(expected, TestUtil.getNeighborNodes(view2, node));
+                }
+                assertEquals(hits + 1, neighborCache.hitCount());
+            }
+        } finally {
+            TestUtil.deleteQuietly(testDirectory);
+        }
+    }
+}
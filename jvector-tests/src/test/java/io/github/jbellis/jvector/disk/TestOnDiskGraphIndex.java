@@ -22,7 +22,14 @@ import io.github.jbellis.jvector.TestUtil;
 import io.github.jbellis.jvector.graph.GraphIndex;
 import io.github.jbellis.jvector.graph.GraphIndexBuilder;
 import io.github.jbellis.jvector.graph.GraphIndexTestCase;
+import io.github.jbellis.jvector.graph.GraphSearcher;
+import io.github.jbellis.jvector.graph.ListRandomAccessVectorValues;
+import io.github.jbellis.jvector.graph.NodeSimilarity;
 import io.github.jbellis.jvector.graph.RandomAccessVectorValues;
+import io.github.jbellis.jvector.graph.SearchResult;
+import io.github.jbellis.jvector.pq.PQVectors;
+import io.github.jbellis.jvector.pq.ProductQuantization;
+import io.github.jbellis.jvector.util.Bits;
 import io.github.jbellis.jvector.vector.VectorEncoding;
 import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
 import org.junit.After;
@@ -32,13 +39,19 @@ import org.junit.Test;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 import static io.github.jbellis.jvector.TestUtil.getNeighborNodes;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
 @ThreadLeakScope(ThreadLeakScope.Scope.NONE)
@@ -156,6 +169,338 @@ public class TestOnDiskGraphIndex extends RandomizedTest {
         }
     }
 
+    @Test
+    public void testLocalityRenumbering() throws Exception {
+        // low-dimensional random vectors, so that neighbors are close together in space but not in insertion order
+        var vectors = new ArrayList<float[]>();
+        for (int i = 0; i < 1000; i++) {
+            vectors.add(TestUtil.randomVector(getRandom(), 2));
+        }
+        var ravv = new ListRandomAccessVectorValues(vectors, 2);
+        var builder = new GraphIndexBuilder<>(ravv, VectorEncoding.FLOAT32, VectorSimilarityFunction.EUCLIDEAN, 8, 30, 1.2f, 1.2f);
+        var graph = TestUtil.buildSequentially(builder, ravv);
+
+        double sequentialGap = meanEdgeGap(graph, OnDiskGraphIndex.getSequentialRenumbering(graph));
+        for (var renumbering : List.of(OnDiskGraphIndex.getBreadthFirstRenumbering(graph),
+                                       OnDiskGraphIndex.getReverseCuthillMcKeeRenumbering(graph)))
+        {
+            // a permutation of the ordinals
+            assertEquals(graph.size(), renumbering.size());
+            assertEquals(graph.size(), new HashSet<>(renumbering.values()).size());
+            assertTrue(renumbering.values().stream().allMatch(i -> i >= 0 && i < graph.size()));
+
+            // that brings neighbors closer together
+            double gap = meanEdgeGap(graph, renumbering);
+            assertTrue(String.format("%s >= %s", gap, sequentialGap), gap < sequentialGap / 2);
+
+            // and round-trips
+            var outputPath = testDirectory.resolve("locality_graph");
+            try (var out = TestUtil.openFileForWriting(outputPath)) {
+                OnDiskGraphIndex.write(graph, ravv, renumbering, out);
+            }
+            try (var marr = new SimpleMappedReader(outputPath.toAbsolutePath().toString());
+                 var onDiskGraph = new OnDiskGraphIndex<float[]>(marr::duplicate, 0);
+                 var onDiskView = onDiskGraph.getView();
+                 var view = graph.getView())
+            {
+                for (int node = 0; node < graph.size(); node++) {
+                    int newNode = renumbering.get(node);
+                    assertArrayEquals(ravv.vectorValue(node), onDiskView.getVector(newNode), 0.0f);
+                    var expected = getNeighborNodes(view, node).stream().map(renumbering::get).collect(Collectors.toSet());
+                    assertEquals(expected, getNeighborNodes(onDiskView, newNode));
+                }
+            }
+        }
+    }
+
+    private static double meanEdgeGap(GraphIndex<float[]> graph, Map<Integer, Integer> renumbering) {
+        long total = 0;
+        long edges = 0;
+        var view = graph.getView();
+        for (int node = 0; node < graph.size(); node++) {
+            for (var it = view.getNeighborsIterator(node); it.hasNext(); ) {
+                total += Math.abs(renumbering.get(node) - renumbering.get(it.nextInt()));
+                edges++;
+            }
+        }
+        return (double) total / edges;
+    }
+
+    @Test
+    public void testHierarchyAndEntryPoints() throws IOException {
+        var vectors = new ArrayList<float[]>();
+        for (int i = 0; i < 500; i++) {
+            vectors.add(TestUtil.randomVector(getRandom(), 8));
+        }
+        var ravv = new ListRandomAccessVectorValues(vectors, 8);
+        var builder = new GraphIndexBuilder<>(ravv, VectorEncoding.FLOAT32, VectorSimilarityFunction.EUCLIDEAN, 4, 20, 1.0f, 1.2f, true);
+        builder.setEntryPointCount(8);
+        var original = builder.build();
+        var hierarchy = original.getView().hierarchy();
+        assertTrue(hierarchy.levels() > 0);
+        var entryPoints = original.getView().entryPoints();
+        assertTrue(entryPoints.length > 0);
+
+        // reverse the ordinals, so that the written hierarchy has to be re-sorted
+        Map<Integer, Integer> oldToNewMap = new HashMap<>();
+        for (int i = 0; i < original.size(); i++) {
+            oldToNewMap.put(i, original.size() - 1 - i);
+        }
+        var outputPath = testDirectory.resolve("hierarchical_graph");
+        try (var indexOutputWriter = TestUtil.openFileForWriting(outputPath))
+        {
+            OnDiskGraphIndex.write(original, ravv, oldToNewMap, indexOutputWriter);
+            indexOutputWriter.flush();
+        }
+
+        try (var marr = new SimpleMappedReader(outputPath.toAbsolutePath().toString());
+             var onDiskGraph = new OnDiskGraphIndex<float[]>(marr::duplicate, 0);
+             var onDiskView = onDiskGraph.getView())
+        {
+            assertArrayEquals(Arrays.stream(entryPoints).map(oldToNewMap::get).toArray(), onDiskView.entryPoints());
+
+            var onDiskHierarchy = onDiskView.hierarchy();
+            assertEquals(hierarchy.levels(), onDiskHierarchy.levels());
+            assertEquals((int) oldToNewMap.get(hierarchy.entryNode()), onDiskHierarchy.entryNode());
+            for (int level = 1; level <= hierarchy.levels(); level++) {
+                var nodes = hierarchy.nodes(level);
+                assertEquals(nodes.length, onDiskHierarchy.nodes(level).length);
+                for (int node : nodes) {
+                    var expected = Arrays.stream(hierarchy.neighbors(level, node)).map(oldToNewMap::get).toArray();
+                    assertArrayEquals(expected, onDiskHierarchy.neighbors(level, oldToNewMap.get(node)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallelWrite() throws Exception {
+        var vectors = new ArrayList<float[]>();
+        for (int i = 0; i < 500; i++) {
+            vectors.add(TestUtil.randomVector(getRandom(), 16));
+        }
+        var ravv = new ListRandomAccessVectorValues(vectors, 16);
+        var builder = new GraphIndexBuilder<>(ravv, VectorEncoding.FLOAT32, VectorSimilarityFunction.EUCLIDEAN, 6, 20, 1.0f, 1.2f, true);
+        builder.setEntryPointCount(4);
+        var original = builder.build();
+        var pq = ProductQuantization.compute(ravv, 4, false);
+        var pqVectors = new PQVectors(pq, pq.encodeAll(vectors));
+        var renumbering = OnDiskGraphIndex.getReverseCuthillMcKeeRenumbering(original);
+
+        var streamedPath = testDirectory.resolve("streamed_graph");
+        try (var out = TestUtil.openFileForWriting(streamedPath)) {
+            OnDiskGraphIndex.write(original, ravv, pqVectors, renumbering, out);
+        }
+        // small chunks, so that the records are split across many tasks
+        var parallelPath = testDirectory.resolve("parallel_graph");
+        OnDiskGraphIndex.write(original, ravv, pqVectors, OnDiskGraphIndex.toOrdinalArray(renumbering),
+                               parallelPath, ForkJoinPool.commonPool(), 1000);
+        assertArrayEquals(Files.readAllBytes(streamedPath), Files.readAllBytes(parallelPath));
+
+        try (var marr = new SimpleMappedReader(parallelPath.toAbsolutePath().toString());
+             var onDiskGraph = new OnDiskGraphIndex<float[]>(marr::duplicate, 0);
+             var onDiskView = onDiskGraph.getView())
+        {
+            assertEquals((int) renumbering.get(original.getView().entryNode()), onDiskView.entryNode());
+            for (int node = 0; node < original.size(); node++) {
+                assertArrayEquals(ravv.vectorValue(node), onDiskView.getVector(renumbering.get(node)), 0.0f);
+            }
+        }
+
+        // ordinal maps must cover the graph's nodes exactly once
+        var missing = OnDiskGraphIndex.toOrdinalArray(renumbering);
+        missing[0] = -1;
+        assertThrows(IllegalArgumentException.class, () -> OnDiskGraphIndex.write(original, ravv, null, missing, parallelPath));
+        var duplicated = OnDiskGraphIndex.toOrdinalArray(renumbering);
+        duplicated[0] = duplicated[1];
+        assertThrows(IllegalArgumentException.class, () -> OnDiskGraphIndex.write(original, ravv, null, duplicated, parallelPath));
+    }
+
+    @Test
+    public void testFusedPQ() throws IOException {
+        var vectors = new ArrayList<float[]>();
+        for (int i = 0; i < 500; i++) {
+            vectors.add(TestUtil.randomVector(getRandom(), 16));
+        }
+        var ravv = new ListRandomAccessVectorValues(vectors, 16);
+        var builder = new GraphIndexBuilder<>(ravv, VectorEncoding.FLOAT32, VectorSimilarityFunction.COSINE, 6, 20, 1.0f, 1.2f);
+        var original = builder.build();
+        var pq = ProductQuantization.compute(ravv, 4, true);
+        var pqVectors = new PQVectors(pq, pq.encodeAll(vectors));
+
+        var outputPath = testDirectory.resolve("fused_graph");
+        try (var indexOutputWriter = TestUtil.openFileForWriting(outputPath))
+        {
+            OnDiskGraphIndex.write(original, ravv, pqVectors, OnDiskGraphIndex.getSequentialRenumbering(original), indexOutputWriter);
+            indexOutputWriter.flush();
+        }
+
+        try (var marr = new SimpleMappedReader(outputPath.toAbsolutePath().toString());
+             var onDiskGraph = new OnDiskGraphIndex<float[]>(marr::duplicate, 0);
+             var onDiskView = onDiskGraph.getView())
+        {
+            TestUtil.assertGraphEquals(original, onDiskGraph);
+            validateVectors(onDiskView, ravv);
+
+            for (var vsf : VectorSimilarityFunction.values()) {
+                var q = TestUtil.randomVector(getRandom(), 16);
+                var expected = pqVectors.approximateScoreFunctionFor(q, vsf);
+                var fused = onDiskView.approximateScoreFunctionFor(q, vsf);
+                assertTrue(fused.supportsEdgeLoadingSimilarity());
+                for (int node = 0; node < onDiskGraph.size(); node++) {
+                    assertEquals(expected.similarityTo(node), fused.similarityTo(node), 1e-6);
+                    var edgeScores = fused.edgeLoadingSimilarityTo(node);
+                    var it = onDiskView.getNeighborsIterator(node);
+                    for (int i = 0; it.hasNext(); i++) {
+                        assertEquals(expected.similarityTo(it.nextInt()), edgeScores[i], 1e-6);
+                    }
+                }
+            }
+
+            // search using the fused codes, reranking with the full vectors
+            var searcher = new GraphSearcher.Builder<>(onDiskView).build();
+            var q = vectors.get(0);
+            var sf = onDiskView.approximateScoreFunctionFor(q, VectorSimilarityFunction.COSINE);
+            NodeSimilarity.ReRanker rr = j -> VectorSimilarityFunction.COSINE.compare(q, onDiskView.getVector(j));
+            var result = searcher.search(sf, rr, 10, Bits.ALL);
+            assertEquals(0, result.getNodes()[0].node);
+        }
+    }
+
+    @Test
+    public void testDeletedNodes() throws Exception {
+        var vectors = new ArrayList<float[]>();
+        for (int i = 0; i < 200; i++) {
+            vectors.add(TestUtil.randomVector(getRandom(), 8));
+        }
+        var ravv = new ListRandomAccessVectorValues(vectors, 8);
+        var graph = new GraphIndexBuilder<>(ravv, VectorEncoding.FLOAT32, VectorSimilarityFunction.EUCLIDEAN, 8, 30, 1.2f, 1.2f).build();
+        var outputPath = testDirectory.resolve("deletes_graph");
+        TestUtil.writeGraph(graph, ravv, outputPath);
+        var deletedPath = testDirectory.resolve("deletes_graph.deleted");
+
+        var q = vectors.get(0);
+        try (var onDiskGraph = new OnDiskGraphIndex<float[]>(new SimpleMappedReaderSupplier(outputPath), 0);
+             var view = onDiskGraph.getView())
+        {
+            assertEquals(Bits.ALL, view.liveNodes());
+            assertEquals(0, search(view, q).getNodes()[0].node);
+
+            // deleted nodes are skipped without losing results
+            for (int node = 0; node < 200; node += 2) {
+                onDiskGraph.markDeleted(node);
+            }
+            var result = search(view, q);
+            assertEquals(10, result.getNodes().length);
+            for (var ns : result.getNodes()) {
+                assertTrue(ns.node % 2 == 1);
+            }
+            onDiskGraph.saveDeletedNodes(deletedPath);
+        }
+
+        // the deletions survive reopening the graph
+        try (var onDiskGraph = new OnDiskGraphIndex<float[]>(new SimpleMappedReaderSupplier(outputPath), 0);
+             var view = onDiskGraph.getView())
+        {
+            onDiskGraph.loadDeletedNodes(deletedPath);
+            assertEquals(100, onDiskGraph.getDeletedNodes().cardinality());
+            for (int node = 0; node < 200; node++) {
+                assertEquals(node % 2 == 1, view.liveNodes().get(node));
+            }
+            for (var ns : search(view, q).getNodes()) {
+                assertTrue(ns.node % 2 == 1);
+            }
+        }
+    }
+
+    private static SearchResult search(OnDiskGraphIndex<float[]>.OnDiskView view, float[] q) {
+        var reranker = view.rerankerFor(q, VectorSimilarityFunction.EUCLIDEAN);
+        NodeSimilarity.ExactScoreFunction sf = reranker::similarityTo;
+        return new GraphSearcher.Builder<>(view).build().search(sf, null, 10, Bits.ALL);
+    }
+
+    @Test
+    public void testReranker() throws IOException {
+        var graph = randomlyConnectedGraph;
+        var ravv = new GraphIndexTestCase.CircularFloatVectorValues(graph.size());
+        var outputPath = testDirectory.resolve("reranked_graph");
+        TestUtil.writeGraph(graph, ravv, outputPath);
+
+        var query = TestUtil.randomVector(getRandom(), ravv.dimension());
+        try (var marr = new SimpleMappedReader(outputPath.toAbsolutePath().toString());
+             var onDiskGraph = new OnDiskGraphIndex<float[]>(marr::duplicate, 0);
+             var view = onDiskGraph.getView())
+        {
+            for (var vsf : VectorSimilarityFunction.values()) {
+                var reranker = view.rerankerFor(query, vsf);
+                for (int i = 0; i < graph.size(); i++) {
+                    assertEquals(vsf.compare(query, ravv.vectorValue(i)), reranker.similarityTo(i), 0.0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testVectorsFollowAdjacency() throws IOException {
+        var graph = randomlyConnectedGraph;
+        var ravv = new GraphIndexTestCase.CircularFloatVectorValues(graph.size());
+        var outputPath = testDirectory.resolve("separated_graph");
+        TestUtil.writeGraph(graph, ravv, outputPath);
+
+        // the vectors are stored contiguously, in ordinal order, between the adjacency lists and the
+        // (empty) hierarchy, which is written as two ints
+        long vectorsOffset = Files.size(outputPath) - 2 * Integer.BYTES - (long) graph.size() * ravv.dimension() * Float.BYTES;
+        try (var marr = new SimpleMappedReader(outputPath.toAbsolutePath().toString())) {
+            marr.seek(vectorsOffset);
+            for (int node = 0; node < graph.size(); node++) {
+                var vector = new float[ravv.dimension()];
+                marr.readFully(vector);
+                assertArrayEquals(ravv.vectorValue(node), vector, 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void testReadVersion0() throws IOException {
+        // write a graph in the format used before the header was versioned
+        var graph = randomlyConnectedGraph;
+        var ravv = new GraphIndexTestCase.CircularFloatVectorValues(graph.size());
+        var outputPath = testDirectory.resolve("version0_graph");
+        try (var out = TestUtil.openFileForWriting(outputPath);
+             var view = graph.getView())
+        {
+            out.writeInt(graph.size());
+            out.writeInt(ravv.dimension());
+            out.writeInt(view.entryNode());
+            out.writeInt(graph.maxDegree());
+            for (int node = 0; node < graph.size(); node++) {
+                out.writeInt(node);
+                Io.writeFloats(out, ravv.vectorValue(node));
+                var neighbors = view.getNeighborsIterator(node);
+                out.writeInt(neighbors.size());
+                int n = 0;
+                for (; n < neighbors.size(); n++) {
+                    out.writeInt(neighbors.nextInt());
+                }
+                for (; n < graph.maxDegree(); n++) {
+                    out.writeInt(-1);
+                }
+            }
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+
+        try (var marr = new SimpleMappedReader(outputPath.toAbsolutePath().toString());
+             var onDiskGraph = new OnDiskGraphIndex<float[]>(marr::duplicate, 0))
+        {
+            TestUtil.assertGraphEquals(graph, onDiskGraph);
+            try (var onDiskView = onDiskGraph.getView()) {
+                assertEquals(0, onDiskView.hierarchy().levels());
+                validateVectors(onDiskView, ravv);
+            }
+        }
+    }
+
     private static void validateVectors(GraphIndex.View<float[]> view, RandomAccessVectorValues<float[]> ravv) {
         for (int i = 0; i < view.size(); i++) {
             assertArrayEquals(view.getVector(i), ravv.vectorValue(i), 0.0f);
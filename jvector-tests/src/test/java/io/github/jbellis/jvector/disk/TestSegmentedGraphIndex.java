@@ -0,0 +1,158 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.disk;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakScope;
+import io.github.jbellis.jvector.TestUtil;
+import io.github.jbellis.jvector.graph.SearchResult;
+import io.github.jbellis.jvector.util.Bits;
+import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@ThreadLeakScope(ThreadLeakScope.Scope.NONE)
+public class TestSegmentedGraphIndex extends RandomizedTest {
+    private static final int DIMENSION = 8;
+
+    private Path testDirectory;
+
+    @Before
+    public void setup() throws IOException {
+        testDirectory = Files.createTempDirectory(this.getClass().getSimpleName());
+    }
+
+    @After
+    public void tearDown() {
+        TestUtil.deleteQuietly(testDirectory);
+    }
+
+    private SegmentedGraphIndex open(int maxSegmentSize) throws IOException {
+        return new SegmentedGraphIndex(testDirectory, DIMENSION, VectorSimilarityFunction.EUCLIDEAN, maxSegmentSize, 8, 30, 1.2f, 1.2f);
+    }
+
+    @Test
+    public void testSearchAcrossSegments() throws IOException {
+        var vectors = new ArrayList<float[]>();
+        try (var index = open(100)) {
+            for (int i = 0; i < 250; i++) {
+                var v = TestUtil.randomVector(getRandom(), DIMENSION);
+                vectors.add(v);
+                assertEquals(i, index.add(v));
+            }
+            // two full segments were flushed, the rest is in memory
+            assertEquals(2, index.segmentCount());
+            assertEquals(250, index.size());
+            assertRecall(index, vectors, Bits.ALL);
+
+            // filters are applied by index ordinal
+            var odd = new Bits() {
+                @Override
+                public boolean get(int index) {
+                    return index % 2 == 1;
+                }
+
+                @Override
+                public int length() {
+                    return vectors.size();
+                }
+            };
+            var result = index.search(vectors.get(0), 10, odd);
+            assertEquals(10, result.getNodes().length);
+            for (var ns : result.getNodes()) {
+                assertTrue(ns.node % 2 == 1);
+            }
+        }
+        try (var files = Files.list(testDirectory)) {
+            assertEquals(3, files.count());
+        }
+
+        // reopening resumes from the flushed segments
+        try (var index = open(100)) {
+            assertEquals(3, index.segmentCount());
+            assertEquals(250, index.size());
+            assertRecall(index, vectors, Bits.ALL);
+
+            var v = TestUtil.randomVector(getRandom(), DIMENSION);
+            vectors.add(v);
+            assertEquals(250, index.add(v));
+            assertEquals(250, index.search(v, 1, Bits.ALL).getNodes()[0].node);
+        }
+    }
+
+    @Test
+    public void testConcurrentSearches() throws IOException {
+        try (var index = open(100)) {
+            for (int i = 0; i < 300; i++) {
+                index.add(TestUtil.randomVector(getRandom(), DIMENSION));
+            }
+            var queries = IntStream.range(0, 50)
+                    .mapToObj(i -> TestUtil.randomVector(getRandom(), DIMENSION))
+                    .collect(Collectors.toList());
+            var expected = queries.stream().map(q -> nodesOf(index.search(q, 10, Bits.ALL))).collect(Collectors.toList());
+
+            // each thread reuses its own searchers, so concurrent queries see the same results as serial ones
+            IntStream.range(0, 1000).parallel().forEach(i -> {
+                int q = i % queries.size();
+                assertEquals(expected.get(q), nodesOf(index.search(queries.get(q), 10, Bits.ALL)));
+            });
+        }
+    }
+
+    private static List<Integer> nodesOf(SearchResult result) {
+        return Arrays.stream(result.getNodes()).map(ns -> ns.node).collect(Collectors.toList());
+    }
+
+    private void assertRecall(SegmentedGraphIndex index, List<float[]> vectors, Bits acceptOrds) {
+        int topK = 10;
+        int matches = 0;
+        int queries = 20;
+        for (int q = 0; q < queries; q++) {
+            var query = TestUtil.randomVector(getRandom(), DIMENSION);
+            var expected = IntStream.range(0, vectors.size()).boxed()
+                    .sorted(Comparator.comparingDouble(i -> -VectorSimilarityFunction.EUCLIDEAN.compare(query, vectors.get(i))))
+                    .limit(topK)
+                    .collect(Collectors.toSet());
+            var result = index.search(query, topK, acceptOrds);
+            assertEquals(topK, result.getNodes().length);
+            for (int i = 1; i < topK; i++) {
+                assertTrue(result.getNodes()[i - 1].score >= result.getNodes()[i].score);
+            }
+            for (var ns : result.getNodes()) {
+                if (expected.contains(ns.node)) {
+                    matches++;
+                }
+            }
+        }
+        double recall = (double) matches / (queries * topK);
+        assertTrue("recall " + recall, recall > 0.9);
+    }
+}
@@ -383,6 +383,103 @@ public abstract class GraphIndexTestCase<T> extends LuceneTestCase {
         assertTrue("overlap=" + overlap, overlap > 0.9);
     }
 
+    @Test
+    // batched searches should find exactly what the same queries find when searched one at a time
+    public void testSearchBatch() {
+        int size = between(100, 150);
+        int dim = between(2, 15);
+        AbstractMockVectorValues<T> vectors = vectorValues(size, dim);
+        GraphIndexBuilder<T> builder =
+                new GraphIndexBuilder<>(vectors, getVectorEncoding(), similarityFunction, 10, 30, 1.0f, 1.4f);
+        var graph = builder.build();
+        Bits acceptOrds = getRandom().nextBoolean() ? Bits.ALL : createRandomAcceptOrds(0, size);
+        int topK = 10;
+
+        var searcher = new GraphSearcher.Builder<>(graph.getView()).build();
+        var singleSearcher = new GraphSearcher.Builder<>(graph.getView()).build();
+        // search batches of different sizes with the same searcher, to exercise reuse of the scratch state
+        for (int batchSize : List.of(8, 3, 17)) {
+            var scoreFunctions = new ArrayList<NodeSimilarity.ExactScoreFunction>();
+            for (int i = 0; i < batchSize; i++) {
+                T query = randomVector(dim);
+                scoreFunctions.add(j -> {
+                    if (getVectorEncoding() == VectorEncoding.BYTE) {
+                        return similarityFunction.compare((byte[]) query, (byte[]) vectors.vectorValue(j));
+                    } else {
+                        return similarityFunction.compare((float[]) query, (float[]) vectors.vectorValue(j));
+                    }
+                });
+            }
+
+            var batchResults = searcher.searchBatch(scoreFunctions, null, topK, acceptOrds);
+            assertEquals(batchSize, batchResults.length);
+            for (int i = 0; i < batchSize; i++) {
+                var batchNodes = batchResults[i].getNodes();
+                var expected = singleSearcher.search(scoreFunctions.get(i), null, topK, acceptOrds);
+                var expectedNodes = expected.getNodes();
+                assertEquals(expectedNodes.length, batchNodes.length);
+                for (int j = 0; j < expectedNodes.length; j++) {
+                    assertEquals(expectedNodes[j].node, batchNodes[j].node);
+                    assertEquals(expectedNodes[j].score, batchNodes[j].score, 0.0f);
+                }
+                assertEquals(expected.getVisitedCount(), batchResults[i].getVisitedCount());
+            }
+        }
+    }
+
+    @Test
+    // build a graph with upper levels, check their structure, and check that searches descending through them work
+    public void testHierarchy() {
+        int size = between(500, 1000);
+        int dim = between(2, 15);
+        AbstractMockVectorValues<T> vectors = vectorValues(size, dim);
+        int topK = 5;
+        GraphIndexBuilder<T> builder =
+                new GraphIndexBuilder<>(vectors, getVectorEncoding(), similarityFunction, 4, 30, 1.0f, 1.4f, true);
+        var graph = builder.build();
+
+        var hierarchy = graph.getView().hierarchy();
+        assertTrue(hierarchy.toString(), hierarchy.levels() > 0);
+        assertTrue(Arrays.binarySearch(hierarchy.nodes(hierarchy.levels()), hierarchy.entryNode()) >= 0);
+        for (int level = 1; level <= hierarchy.levels(); level++) {
+            var nodes = hierarchy.nodes(level);
+            assertTrue(nodes.length > 0);
+            for (int i = 0; i < nodes.length; i++) {
+                if (i > 0) {
+                    assertTrue(nodes[i - 1] < nodes[i]);
+                }
+                // every node on an upper level is also present on the level below it
+                if (level > 1) {
+                    assertTrue(Arrays.binarySearch(hierarchy.nodes(level - 1), nodes[i]) >= 0);
+                } else {
+                    assertTrue(graph.containsNode(nodes[i]));
+                }
+                for (int neighbor : hierarchy.neighbors(level, nodes[i])) {
+                    assertTrue(Arrays.binarySearch(nodes, neighbor) >= 0);
+                }
+            }
+        }
+
+        int efSearch = 100;
+        int totalMatches = 0;
+        for (int i = 0; i < 100; i++) {
+            T query = randomVector(dim);
+            var actual = GraphSearcher.search(query, efSearch, vectors, getVectorEncoding(), similarityFunction, graph, Bits.ALL).getNodes();
+            NodeQueue expected = new NodeQueue(new BoundedLongHeap(topK), NodeQueue.Order.MIN_HEAP);
+            for (int j = 0; j < size; j++) {
+                if (getVectorEncoding() == VectorEncoding.BYTE) {
+                    expected.push(j, similarityFunction.compare((byte[]) query, (byte[]) vectors.vectorValue(j)));
+                } else {
+                    expected.push(j, similarityFunction.compare((float[]) query, (float[]) vectors.vectorValue(j)));
+                }
+            }
+            var actualNodeIds = Arrays.stream(actual, 0, topK).mapToInt(nodeScore -> nodeScore.node).toArray();
+            totalMatches += computeOverlap(actualNodeIds, expected.nodesCopy());
+        }
+        double overlap = totalMatches / (double) (100 * topK);
+        assertTrue("overlap=" + overlap, overlap > 0.9);
+    }
+
     private int computeOverlap(int[] a, int[] b) {
         Arrays.sort(a);
         Arrays.sort(b);
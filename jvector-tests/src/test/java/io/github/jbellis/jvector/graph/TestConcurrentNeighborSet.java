@@ -24,6 +24,7 @@ import org.junit.Test;
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Random;
 import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertArrayEquals;
@@ -121,6 +122,52 @@ public class TestConcurrentNeighborSet extends RandomizedTest {
     assertEquals(2, neighbors.size());
   }
 
+  @Test
+  public void testConcurrentReadersSeeConsistentNeighbors() throws Exception {
+    // each node has a distinct score, so a consistent snapshot is strictly sorted with no duplicates
+    NodeSimilarity scoreBetween = a -> (NodeSimilarity.ExactScoreFunction) b -> -Math.abs(a - b);
+    var neighbors = new ConcurrentNeighborSet(0, 8, scoreBetween, 1.2f);
+    int inserts = 20_000;
+
+    var writers = new Thread[2];
+    for (int w = 0; w < writers.length; w++) {
+      var random = new Random(getRandom().nextLong());
+      writers[w] = new Thread(() -> {
+        for (int i = 0; i < inserts; i++) {
+          int node = 1 + random.nextInt(1000);
+          neighbors.insert(node, node / 1000f, 1.5f);
+        }
+      });
+      writers[w].start();
+    }
+
+    var scratch = new int[neighbors.arrayLength()];
+    boolean writing = true;
+    while (writing) {
+      writing = false;
+      for (var writer : writers) {
+        writing |= writer.isAlive();
+      }
+
+      var snapshot = neighbors.getCurrent();
+      for (int i = 0; i < snapshot.size() - 1; i++) {
+        assertTrue(snapshot.score[i] > snapshot.score[i + 1]);
+      }
+      if (scratch.length < neighbors.arrayLength()) {
+        scratch = new int[neighbors.arrayLength()];
+      }
+      var seen = new HashSet<Integer>();
+      for (var it = neighbors.iterator(scratch); it.hasNext(); ) {
+        assertTrue(seen.add(it.nextInt()));
+      }
+    }
+    for (var writer : writers) {
+      writer.join();
+    }
+    neighbors.cleanup();
+    assertTrue(neighbors.size() <= 8);
+  }
+
   @Test
   public void testNoDuplicatesDescOrder() {
     NodeArray cna = new NodeArray(5);
@@ -193,7 +240,7 @@ public class TestConcurrentNeighborSet extends RandomizedTest {
     validateSortedByScore(merged);
   }
 
-  private void testMergeCandidatesOnce() {
+  private void testMergeCandidatesOnce(NodeArray scratch) {
     // test merge emphasizing dealing with tied scores
     int maxSize = 1 + getRandom().nextInt(5);
 
@@ -261,12 +308,20 @@ public class TestConcurrentNeighborSet extends RandomizedTest {
                                  Arrays.toString(merged.node)),
                      uniqueNodes.contains(arr2.node[i]));
     }
+
+    // merging into a reused array, left over from the previous merge, gives the same result
+    var reused = ConcurrentNeighborSet.mergeNeighbors(arr1, arr2, scratch);
+    assertEquals(merged.size(), reused.size());
+    assertArrayEquals(Arrays.copyOf(merged.node(), merged.size()), Arrays.copyOf(reused.node(), reused.size()));
+    assertArrayEquals(Arrays.copyOf(merged.score(), merged.size()), Arrays.copyOf(reused.score(), reused.size()), 0.0f);
   }
 
   @Test
   public void testMergeCandidatesRandom() {
+    // start small so that the reused array has to grow
+    var scratch = new NodeArray(1);
     for (int i = 0; i < 10000; i++) {
-      testMergeCandidatesOnce();
+      testMergeCandidatesOnce(scratch);
     }
   }
 }
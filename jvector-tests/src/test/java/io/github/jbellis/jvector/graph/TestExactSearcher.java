@@ -0,0 +1,120 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.graph;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakScope;
+import io.github.jbellis.jvector.TestUtil;
+import io.github.jbellis.jvector.pq.PQVectors;
+import io.github.jbellis.jvector.pq.ProductQuantization;
+import io.github.jbellis.jvector.util.Bits;
+import io.github.jbellis.jvector.util.FixedBitSet;
+import io.github.jbellis.jvector.vector.VectorEncoding;
+import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
+import org.junit.Test;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@ThreadLeakScope(ThreadLeakScope.Scope.NONE)
+public class TestExactSearcher extends RandomizedTest {
+    private static final int DIMENSION = 8;
+    private static final VectorSimilarityFunction VSF = VectorSimilarityFunction.EUCLIDEAN;
+
+    @Test
+    public void testSearch() {
+        // several chunks, the last one partial
+        int size = 3 * ExactSearcher.CHUNK_SIZE + 100;
+        var vectors = randomVectors(size);
+        var ravv = new ListRandomAccessVectorValues(vectors, DIMENSION);
+
+        var even = new FixedBitSet(size);
+        for (int i = 0; i < size; i += 2) {
+            even.set(i);
+        }
+        var rare = new Bits() {
+            @Override
+            public boolean get(int index) {
+                return index % 1000 == 7;
+            }
+
+            @Override
+            public int length() {
+                return size;
+            }
+        };
+        for (Bits acceptOrds : List.of(Bits.ALL, even, rare)) {
+            var query = TestUtil.randomVector(getRandom(), DIMENSION);
+            int topK = 10;
+            var expected = IntStream.range(0, size).filter(acceptOrds::get).boxed()
+                    .sorted(Comparator.comparingDouble(i -> -VSF.compare(query, vectors.get(i))))
+                    .limit(topK)
+                    .collect(Collectors.toList());
+            var result = ExactSearcher.search(query, topK, ravv, VectorEncoding.FLOAT32, VSF, acceptOrds);
+            var nodes = result.getNodes();
+            assertEquals(expected.size(), nodes.length);
+            for (int i = 0; i < nodes.length; i++) {
+                assertEquals(expected.get(i).intValue(), nodes[i].node);
+                assertEquals(VSF.compare(query, vectors.get(nodes[i].node)), nodes[i].score, 0.0f);
+            }
+            assertEquals(IntStream.range(0, size).filter(acceptOrds::get).count(), result.getVisitedCount());
+        }
+    }
+
+    @Test
+    public void testCompressedSearch() {
+        int size = 2 * ExactSearcher.CHUNK_SIZE;
+        var vectors = randomVectors(size);
+        var ravv = new ListRandomAccessVectorValues(vectors, DIMENSION);
+        var pq = ProductQuantization.compute(ravv, DIMENSION, false);
+        var cv = new PQVectors(pq, pq.encodeAll(vectors));
+        assertEquals(size, cv.count());
+
+        int topK = 10;
+        int matches = 0;
+        int queries = 20;
+        for (int q = 0; q < queries; q++) {
+            var query = TestUtil.randomVector(getRandom(), DIMENSION);
+            var expected = IntStream.range(0, size).boxed()
+                    .sorted(Comparator.comparingDouble(i -> -VSF.compare(query, vectors.get(i))))
+                    .limit(topK)
+                    .collect(Collectors.toSet());
+            NodeSimilarity.ReRanker reRanker = i -> VSF.compare(query, vectors.get(i));
+            var nodes = ExactSearcher.search(query, topK, cv, VSF, reRanker, Bits.ALL).getNodes();
+            assertEquals(topK, nodes.length);
+            for (int i = 0; i < nodes.length; i++) {
+                if (i > 0) {
+                    assertTrue(nodes[i - 1].score >= nodes[i].score);
+                }
+                if (expected.contains(nodes[i].node)) {
+                    matches++;
+                }
+            }
+        }
+        double recall = (double) matches / (queries * topK);
+        assertTrue("recall " + recall, recall > 0.8);
+    }
+
+    private List<float[]> randomVectors(int count) {
+        return IntStream.range(0, count).mapToObj(i -> TestUtil.randomVector(getRandom(), DIMENSION)).collect(Collectors.toList());
+    }
+}
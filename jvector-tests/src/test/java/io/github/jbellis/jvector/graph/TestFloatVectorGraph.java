@@ -26,12 +26,24 @@ package io.github.jbellis.jvector.graph;
 
 import com.carrotsearch.randomizedtesting.RandomizedTest;
 import io.github.jbellis.jvector.TestUtil;
+import io.github.jbellis.jvector.pq.DecodedVectorValues;
+import io.github.jbellis.jvector.pq.PQVectors;
+import io.github.jbellis.jvector.pq.ProductQuantization;
+import io.github.jbellis.jvector.util.Bits;
 import io.github.jbellis.jvector.util.FixedBitSet;
 import io.github.jbellis.jvector.vector.VectorEncoding;
 import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
 import org.junit.Before;
+import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -112,4 +124,308 @@ public class TestFloatVectorGraph extends GraphIndexTestCase<float[]> {
         // are closest to the query vector: sum(500,509) = 5045
         assertTrue("sum(result docs)=" + sum, sum < 5100);
     }
+
+    @Test
+    public void testAdaptiveFiltering() {
+        int nDoc = 4000;
+        int dim = 8;
+        int topK = 10;
+        similarityFunction = VectorSimilarityFunction.EUCLIDEAN;
+        var vectors = vectorValues(nDoc, dim);
+        var builder = new GraphIndexBuilder<>(vectors, getVectorEncoding(), similarityFunction, 16, 100, 1.2f, 1.2f);
+        var graph = builder.build();
+        var adaptive = new GraphSearcher.Builder<>(graph.getView()).withAdaptiveFiltering().build();
+        var plain = new GraphSearcher.Builder<>(graph.getView()).build();
+
+        // from nearly everything, through two-hop expansion, to an exhaustive scan of a few nodes
+        for (double selectivity : new double[] {0.9, 0.1, 0.03, 0.002}) {
+            var acceptOrds = new FixedBitSet(nDoc);
+            for (int i = 0; i < nDoc; i++) {
+                if (getRandom().nextDouble() < selectivity) {
+                    acceptOrds.set(i);
+                }
+            }
+            int matches = 0;
+            int possible = 0;
+            int adaptiveVisited = 0;
+            int plainVisited = 0;
+            int queries = 20;
+            for (int q = 0; q < queries; q++) {
+                var query = randomVector(dim);
+                NodeSimilarity.ExactScoreFunction sf = i -> similarityFunction.compare(query, vectors.vectorValue(i));
+                var expected = new HashSet<Integer>();
+                IntStream.range(0, nDoc).filter(acceptOrds::get).boxed()
+                        .sorted(Comparator.comparingDouble(i -> -sf.similarityTo(i)))
+                        .limit(topK)
+                        .forEach(expected::add);
+
+                var result = adaptive.search(sf, null, topK, acceptOrds);
+                assertEquals(expected.size(), result.getNodes().length);
+                possible += expected.size();
+                for (var ns : result.getNodes()) {
+                    assertTrue(acceptOrds.get(ns.node));
+                    if (expected.contains(ns.node)) {
+                        matches++;
+                    }
+                }
+                adaptiveVisited += result.getVisitedCount();
+                plainVisited += plain.search(sf, null, topK, acceptOrds).getVisitedCount();
+            }
+            double recall = (double) matches / possible;
+            assertTrue(String.format("recall %s at selectivity %s", recall, selectivity), recall > 0.9);
+            if (selectivity < 0.05) {
+                // the plain search scores most of the graph before it finds enough accepted nodes
+                assertTrue(String.format("visited %d vs %d at selectivity %s", adaptiveVisited, plainVisited, selectivity),
+                           adaptiveVisited < plainVisited / 2);
+            }
+        }
+    }
+
+    @Test
+    public void testAdaptiveFilteringUnderestimate() {
+        int nDoc = 8000;
+        int dim = 8;
+        int topK = 10;
+        similarityFunction = VectorSimilarityFunction.EUCLIDEAN;
+        var vectors = vectorValues(nDoc, dim);
+        var graph = new GraphIndexBuilder<>(vectors, getVectorEncoding(), similarityFunction, 16, 100, 1.2f, 1.2f).build();
+        var searcher = new GraphSearcher.Builder<>(graph.getView()).withAdaptiveFiltering().build();
+
+        // rejects every ordinal the selectivity sample looks at, and accepts everything after that
+        var calls = new AtomicInteger();
+        var acceptOrds = new Bits() {
+            @Override
+            public boolean get(int index) {
+                return calls.incrementAndGet() > 1024;
+            }
+
+            @Override
+            public int length() {
+                return nDoc;
+            }
+        };
+        var query = randomVector(dim);
+        NodeSimilarity.ExactScoreFunction sf = i -> similarityFunction.compare(query, vectors.vectorValue(i));
+        var result = searcher.search(sf, null, topK, acceptOrds);
+
+        // the exhaustive scan gives up and the graph is searched instead of scoring every node
+        assertEquals(topK, result.getNodes().length);
+        assertTrue("visited " + result.getVisitedCount(), result.getVisitedCount() < nDoc / 2);
+        var expected = IntStream.range(0, nDoc).boxed()
+                .sorted(Comparator.comparingDouble(i -> -sf.similarityTo(i)))
+                .limit(topK)
+                .collect(Collectors.toSet());
+        long matches = Arrays.stream(result.getNodes()).filter(ns -> expected.contains(ns.node)).count();
+        assertTrue("matches " + matches, matches >= topK - 2);
+    }
+
+    @Test
+    public void testSearchRange() {
+        int nDoc = 4000;
+        int dim = 8;
+        int rangeSize = 50;
+        similarityFunction = VectorSimilarityFunction.EUCLIDEAN;
+        var vectors = vectorValues(nDoc, dim);
+        var graph = new GraphIndexBuilder<>(vectors, getVectorEncoding(), similarityFunction, 16, 100, 1.2f, 1.2f).build();
+        var searcher = new GraphSearcher.Builder<>(graph.getView()).build();
+
+        // reused across queries
+        var buffer = new RangeCollector.Buffer();
+        int matches = 0;
+        int possible = 0;
+        int queries = 20;
+        for (int q = 0; q < queries; q++) {
+            var query = randomVector(dim);
+            NodeSimilarity.ExactScoreFunction sf = i -> similarityFunction.compare(query, vectors.vectorValue(i));
+            // the range holds the rangeSize nearest nodes
+            var sorted = IntStream.range(0, nDoc).boxed()
+                    .sorted(Comparator.comparingDouble(i -> -sf.similarityTo(i)))
+                    .mapToInt(i -> i)
+                    .toArray();
+            float threshold = sf.similarityTo(sorted[rangeSize - 1]);
+
+            buffer.clear();
+            int visited = searcher.searchRange(sf, null, threshold, Bits.ALL, buffer);
+            assertTrue(visited < nDoc);
+            var found = new HashSet<Integer>();
+            for (int i = 0; i < buffer.size(); i++) {
+                assertTrue(buffer.score(i) >= threshold);
+                assertEquals(sf.similarityTo(buffer.node(i)), buffer.score(i), 0.0f);
+                assertTrue(found.add(buffer.node(i)));
+            }
+            possible += rangeSize;
+            for (int i = 0; i < rangeSize; i++) {
+                if (found.contains(sorted[i])) {
+                    matches++;
+                }
+            }
+
+            // the collector can stop the search
+            int[] collected = new int[1];
+            searcher.searchRange(sf, null, threshold, Bits.ALL, (node, score) -> ++collected[0] < 5);
+            assertEquals(5, collected[0]);
+        }
+        double recall = (double) matches / possible;
+        assertTrue("recall " + recall, recall > 0.9);
+    }
+
+    @Test
+    public void testBuildFromCompressedVectors() {
+        int nDoc = 2000;
+        int dim = 32;
+        int topK = 10;
+        similarityFunction = VectorSimilarityFunction.EUCLIDEAN;
+        var values = createRandomFloatVectors(nDoc, dim, getRandom());
+        var vectors = vectorValues(values);
+        var pq = ProductQuantization.compute(vectors, 8, false);
+        var pqVectors = new PQVectors(pq, pq.encodeAll(List.of(values)));
+        var builder = new GraphIndexBuilder<>(new DecodedVectorValues(pqVectors), getVectorEncoding(), similarityFunction, 16, 100, 1.2f, 1.2f);
+        var graph = builder.build();
+        double builtRecall = recall(graph, vectors, topK);
+
+        builder.refineNeighbors(vectors);
+        assertExactNeighbors(graph, vectors);
+        double refinedRecall = recall(graph, vectors, topK);
+        assertTrue(String.format("recall %s built, %s refined", builtRecall, refinedRecall), refinedRecall > 0.9);
+
+        // searching with the exact vectors as well
+        builder.refineNeighbors(vectors, 32);
+        assertExactNeighbors(graph, vectors);
+        double searchedRecall = recall(graph, vectors, topK);
+        assertTrue(String.format("recall %s built, %s refined with search", builtRecall, searchedRecall), searchedRecall > 0.9);
+    }
+
+    // the neighbors are scored against the original vectors, including any edges added to reconnect orphans
+    private void assertExactNeighbors(OnHeapGraphIndex<float[]> graph, RandomAccessVectorValues<float[]> vectors) {
+        var vectorsCopy = vectors.copy();
+        for (int node = 0; node < vectors.size(); node++) {
+            var neighbors = graph.getNeighbors(node).getCurrent();
+            assertTrue(neighbors.size() > 0);
+            for (int i = 0; i < neighbors.size(); i++) {
+                float exact = similarityFunction.compare(vectors.vectorValue(node), vectorsCopy.vectorValue(neighbors.node[i]));
+                assertEquals(exact, neighbors.score[i], 0.0f);
+                assertTrue(i == 0 || neighbors.score[i - 1] >= neighbors.score[i]);
+            }
+        }
+    }
+
+    private double recall(OnHeapGraphIndex<float[]> graph, RandomAccessVectorValues<float[]> vectors, int topK) {
+        int matches = 0;
+        int queries = 50;
+        for (int q = 0; q < queries; q++) {
+            var query = randomVector(vectors.dimension());
+            var expected = IntStream.range(0, vectors.size()).boxed()
+                    .sorted(Comparator.comparingDouble(i -> -similarityFunction.compare(query, vectors.vectorValue(i))))
+                    .limit(topK)
+                    .collect(Collectors.toSet());
+            // search a wider beam, as a caller reranking approximate results would
+            var result = GraphSearcher.search(query, 4 * topK, vectors, getVectorEncoding(), similarityFunction, graph, Bits.ALL);
+            for (var ns : result.getNodes()) {
+                if (expected.contains(ns.node)) {
+                    matches++;
+                }
+            }
+        }
+        return (double) matches / (queries * topK);
+    }
+
+    @Test
+    public void testPrefetchHintsEachNodeOnce() throws Exception {
+        int nDoc = 2000;
+        int dim = 8;
+        similarityFunction = VectorSimilarityFunction.EUCLIDEAN;
+        var vectors = vectorValues(nDoc, dim);
+        var graph = new GraphIndexBuilder<>(vectors, getVectorEncoding(), similarityFunction, 16, 100, 1.2f, 1.2f).build();
+        var hints = new ArrayList<Integer>();
+        try (var view = graph.getView()) {
+            GraphIndex.View<float[]> hintingView = new GraphIndex.View<>() {
+                @Override
+                public NodesIterator getNeighborsIterator(int node) {
+                    return view.getNeighborsIterator(node);
+                }
+
+                @Override
+                public int size() {
+                    return view.size();
+                }
+
+                @Override
+                public int entryNode() {
+                    return view.entryNode();
+                }
+
+                @Override
+                public void prefetch(int node) {
+                    hints.add(node);
+                }
+
+                @Override
+                public float[] getVector(int node) {
+                    return view.getVector(node);
+                }
+
+                @Override
+                public Bits liveNodes() {
+                    return view.liveNodes();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            var searcher = new GraphSearcher.Builder<>(hintingView).withPrefetch(4).build();
+            for (int q = 0; q < 2; q++) {
+                var query = randomVector(dim);
+                NodeSimilarity.ExactScoreFunction sf = i -> similarityFunction.compare(query, vectors.vectorValue(i));
+                hints.clear();
+                var result = searcher.search(sf, null, 10, Bits.ALL);
+                assertTrue(hints.size() > 0);
+                // each search hints a node at most once, and only nodes it visited
+                assertEquals(hints.size(), new HashSet<>(hints).size());
+                assertTrue(hints.size() <= result.getVisitedCount());
+            }
+        }
+    }
+
+    @Test
+    public void testEntryPoints() {
+        // four well-separated clusters
+        int dim = 8;
+        int perCluster = 200;
+        var values = new float[4 * perCluster][];
+        for (int c = 0; c < 4; c++) {
+            for (int i = 0; i < perCluster; i++) {
+                var v = TestUtil.randomVector(getRandom(), dim);
+                v[c] += 10;
+                values[c * perCluster + i] = v;
+            }
+        }
+        similarityFunction = VectorSimilarityFunction.EUCLIDEAN;
+        var vectors = vectorValues(values);
+        var builder = new GraphIndexBuilder<>(vectors, getVectorEncoding(), similarityFunction, 8, 50, 1.0f, 1.2f);
+        builder.setEntryPointCount(4);
+        var graph = builder.build();
+
+        var entryPoints = graph.getView().entryPoints();
+        assertTrue(entryPoints.length > 0 && entryPoints.length <= 4);
+        assertEquals(entryPoints.length, Arrays.stream(entryPoints).distinct().count());
+        for (int entryPoint : entryPoints) {
+            assertTrue(graph.containsNode(entryPoint));
+        }
+
+        // searches should find the exact nearest neighbor of each vector
+        int matches = 0;
+        for (int i = 0; i < values.length; i += 10) {
+            var nn = GraphSearcher.search(values[i], 10, vectors, getVectorEncoding(), similarityFunction, graph, Bits.ALL).getNodes();
+            if (nn[0].node == i) {
+                matches++;
+            }
+        }
+        assertTrue("matches=" + matches, matches >= 0.95 * values.length / 10);
+
+        // entry points are recomputed (or cleared) by cleanup
+        builder.setEntryPointCount(0);
+        builder.cleanup();
+        assertEquals(0, graph.getView().entryPoints().length);
+    }
 }
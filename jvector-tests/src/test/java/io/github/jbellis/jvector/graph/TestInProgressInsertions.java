@@ -0,0 +1,101 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.graph;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakScope;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CyclicBarrier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@ThreadLeakScope(ThreadLeakScope.Scope.NONE)
+public class TestInProgressInsertions extends RandomizedTest {
+    @Test
+    public void testAddAndRemove() {
+        var insertions = new InProgressInsertions(4);
+        int[] snapshot = new int[insertions.capacity()];
+        int a = insertions.add(10);
+        int b = insertions.add(20);
+        assertEquals(2, insertions.size());
+        int count = insertions.snapshot(snapshot);
+        assertEquals(2, count);
+        assertEquals(30, snapshot[0] + snapshot[1]);
+
+        insertions.remove(a);
+        assertEquals(1, insertions.snapshot(snapshot));
+        assertEquals(20, snapshot[0]);
+        insertions.remove(b);
+        assertEquals(0, insertions.size());
+    }
+
+    @Test
+    public void testConcurrentInsertsSeeEachOther() throws Exception {
+        int threads = 8;
+        int rounds = 500;
+        // fewer slots than threads, so that some of them have to wait for a free one
+        var insertions = new InProgressInsertions(threads / 2);
+        // seen[round][t] is the snapshot taken by thread t in that round
+        var seen = new int[rounds][threads][];
+        var barrier = new CyclicBarrier(threads);
+        var workers = new ArrayList<Thread>();
+        var failures = new ArrayList<Throwable>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            var worker = new Thread(() -> {
+                try {
+                    var snapshot = new int[insertions.capacity()];
+                    for (int round = 0; round < rounds; round++) {
+                        barrier.await();
+                        int node = round * threads + id;
+                        int slot = insertions.add(node);
+                        int count = insertions.snapshot(snapshot);
+                        seen[round][id] = Arrays.copyOf(snapshot, count);
+                        insertions.remove(slot);
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (var worker : workers) {
+            worker.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(0, insertions.size());
+
+        // every snapshot contains the inserting node itself, and only nodes of the same round
+        for (int round = 0; round < rounds; round++) {
+            for (int t = 0; t < threads; t++) {
+                boolean self = false;
+                for (int node : seen[round][t]) {
+                    assertEquals(round, node / threads);
+                    self |= node == round * threads + t;
+                }
+                assertTrue(self);
+            }
+        }
+    }
+}
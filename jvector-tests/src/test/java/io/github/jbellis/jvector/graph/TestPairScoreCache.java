@@ -0,0 +1,126 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.jbellis.jvector.graph;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakScope;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@ThreadLeakScope(ThreadLeakScope.Scope.NONE)
+public class TestPairScoreCache extends RandomizedTest {
+    private static float scoreOf(int a, int b) {
+        return 1.0f / (1 + a + b);
+    }
+
+    @Test
+    public void testPutAndGet() {
+        var cache = new PairScoreCache(1000);
+        assertEquals(1024, cache.capacity());
+        assertTrue(Float.isNaN(cache.get(1, 2)));
+
+        cache.put(1, 2, 0.5f);
+        assertEquals(0.5f, cache.get(1, 2), 0.0f);
+        // similarity is symmetric
+        assertEquals(0.5f, cache.get(2, 1), 0.0f);
+        assertTrue(Float.isNaN(cache.get(1, 3)));
+
+        cache.clear();
+        assertTrue(Float.isNaN(cache.get(1, 2)));
+    }
+
+    @Test
+    public void testEvictsOnCollision() {
+        // every pair maps to one of two entries
+        var cache = new PairScoreCache(2);
+        for (int i = 1; i < 100; i++) {
+            cache.put(0, i, scoreOf(0, i));
+        }
+        int hits = 0;
+        for (int i = 1; i < 100; i++) {
+            float score = cache.get(0, i);
+            if (!Float.isNaN(score)) {
+                assertEquals(scoreOf(0, i), score, 0.0f);
+                hits++;
+            }
+        }
+        assertTrue(hits > 0 && hits <= 2);
+    }
+
+    @Test
+    public void testWrapScoresMissesOnly() {
+        var cache = new PairScoreCache(1024);
+        var computed = new AtomicInteger();
+        NodeSimilarity similarity = a -> (NodeSimilarity.ExactScoreFunction) b -> {
+            computed.incrementAndGet();
+            return scoreOf(a, b);
+        };
+        var cached = cache.wrap(similarity);
+
+        var sf = cached.scoreProvider(1);
+        assertEquals(scoreOf(1, 2), sf.similarityTo(2), 0.0f);
+        assertEquals(scoreOf(1, 3), sf.similarityTo(3), 0.0f);
+        assertEquals(2, computed.get());
+
+        // the reverse pair is already cached
+        assertEquals(scoreOf(1, 2), cached.score(2, 1), 0.0f);
+        assertEquals(scoreOf(1, 3), cached.scoreProvider(3).similarityTo(1), 0.0f);
+        assertEquals(2, computed.get());
+    }
+
+    @Test
+    public void testConcurrentHitsAreExact() throws Exception {
+        // a small cache, so that threads keep overwriting each other's entries
+        var cache = new PairScoreCache(64);
+        int threads = 4;
+        var workers = new ArrayList<Thread>();
+        var failures = new ArrayList<Throwable>();
+        for (int t = 0; t < threads; t++) {
+            var random = new Random(getRandom().nextLong());
+            var worker = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 200_000; i++) {
+                        int a = random.nextInt(100);
+                        int b = random.nextInt(100);
+                        float score = cache.get(a, b);
+                        if (Float.isNaN(score)) {
+                            cache.put(a, b, scoreOf(a, b));
+                        } else {
+                            assertEquals(scoreOf(a, b), score, 0.0f);
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (var worker : workers) {
+            worker.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+}
@@ -17,7 +17,10 @@ package io.github.jbellis.jvector.microbench;
 
 
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import io.github.jbellis.jvector.example.util.DataSet;
@@ -27,6 +30,7 @@ import io.github.jbellis.jvector.graph.GraphIndexBuilder;
 import io.github.jbellis.jvector.graph.ListRandomAccessVectorValues;
 import io.github.jbellis.jvector.pq.CompressedVectors;
 import io.github.jbellis.jvector.pq.ProductQuantization;
+import io.github.jbellis.jvector.util.PhysicalCoreExecutor;
 import io.github.jbellis.jvector.vector.VectorEncoding;
 import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
 import org.openjdk.jmh.annotations.Benchmark;
@@ -35,8 +39,11 @@ import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.annotations.Warmup;
 import org.openjdk.jmh.infra.Blackhole;
 
@@ -56,6 +63,38 @@ public class GraphBuildBench {
         }
     }
 
+    /**
+     * Random vectors, inserted by a pool of the given number of threads, to measure how the build
+     * scales with concurrent inserts independently of any dataset.
+     */
+    @State(Scope.Benchmark)
+    public static class ScalingParameters {
+        @Param({"1", "2", "4", "8", "16", "32", "64"})
+        int threads;
+
+        ListRandomAccessVectorValues ravv;
+        ForkJoinPool pool;
+
+        @Setup
+        public void setup() {
+            int dimension = 64;
+            var vectors = IntStream.range(0, 50_000).mapToObj(i -> {
+                var v = new float[dimension];
+                for (int d = 0; d < dimension; d++) {
+                    v[d] = ThreadLocalRandom.current().nextFloat();
+                }
+                return v;
+            }).collect(Collectors.toList());
+            ravv = new ListRandomAccessVectorValues(vectors, dimension);
+            pool = new ForkJoinPool(threads);
+        }
+
+        @TearDown
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
     @Benchmark
     @BenchmarkMode(Mode.Throughput)
     @OutputTimeUnit(TimeUnit.SECONDS)
@@ -67,5 +106,13 @@ public class GraphBuildBench {
         System.out.format("Build M=%d ef=%d in %.2fs with %.2f short edges%n",
                 32, 600, (System.nanoTime() - start) / 1_000_000_000.0, avgShortEdges);
     }
-}
 
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void testGraphBuildScaling(Blackhole bh, ScalingParameters p) {
+        var builder = new GraphIndexBuilder<>(p.ravv, VectorEncoding.FLOAT32, VectorSimilarityFunction.EUCLIDEAN, 16, 100, 1.2f, 1.2f,
+                                              p.pool, PhysicalCoreExecutor.pool());
+        bh.consume(builder.build());
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.jbellis.jvector.microbench;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.github.jbellis.jvector.TestUtil;
+import io.github.jbellis.jvector.disk.OnDiskGraphIndex;
+import io.github.jbellis.jvector.disk.RandomAccessReader;
+import io.github.jbellis.jvector.disk.ReaderSupplier;
+import io.github.jbellis.jvector.disk.SimpleMappedReader;
+import io.github.jbellis.jvector.graph.ListRandomAccessVectorValues;
+import io.github.jbellis.jvector.graph.NodeSimilarity;
+import io.github.jbellis.jvector.vector.VectorSimilarityFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the cost of one search hop against an on-disk graph: reading a node's neighbors and
+ * scoring each of them against its full-resolution vector.  "elementwise" reads the way
+ * SimpleMappedReader used to, one getInt/getFloat at a time; "bulk" is the current SimpleMappedReader.
+ */
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(warmups = 1, value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class OnDiskReadBench {
+    @State(Scope.Benchmark)
+    public static class Parameters {
+        @Param({"elementwise", "bulk"})
+        String reader;
+
+        Path path;
+        OnDiskGraphIndex<float[]> graph;
+        OnDiskGraphIndex<float[]>.OnDiskView view;
+        NodeSimilarity.ReRanker reranker;
+        Random random;
+        // the neighbors of the current hop, reused so that only the reads are measured
+        int[] ids;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            random = new Random(1337);
+            int size = 100_000;
+            int dimension = 256;
+            var vectors = new ListRandomAccessVectorValues(Arrays.asList(GraphIndexBench.createRandomFloatVectors(size, dimension, random)), dimension);
+            var onHeapGraph = new TestUtil.RandomlyConnectedGraphIndex<float[]>(size, 32, random);
+            path = Files.createTempFile("OnDiskReadBench", ".graph");
+            TestUtil.writeGraph(onHeapGraph, vectors, path);
+
+            ReaderSupplier supplier;
+            if (reader.equals("elementwise")) {
+                var mbb = map(path);
+                supplier = () -> new ElementwiseMappedReader((MappedByteBuffer) mbb.duplicate());
+            } else {
+                var smr = new SimpleMappedReader(path);
+                supplier = smr::duplicate;
+            }
+            graph = new OnDiskGraphIndex<>(supplier, 0);
+            view = graph.getView();
+            reranker = view.rerankerFor(TestUtil.randomVector(random, dimension), VectorSimilarityFunction.DOT_PRODUCT);
+            ids = new int[graph.maxDegree()];
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            view.close();
+            graph.close();
+            Files.deleteIfExists(path);
+        }
+
+        private static MappedByteBuffer map(Path path) throws IOException {
+            try (var raf = new RandomAccessFile(path.toFile(), "r")) {
+                var mbb = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                mbb.load();
+                return mbb;
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void hop(Blackhole bh, Parameters p) {
+        int node = p.random.nextInt(p.view.size());
+        var neighbors = p.view.getNeighborsIterator(node);
+        // copy the neighbors out, since reranking reuses the view's reader
+        int n = neighbors.size();
+        for (int i = 0; i < n; i++) {
+            p.ids[i] = neighbors.nextInt();
+        }
+        for (int i = 0; i < n; i++) {
+            bh.consume(p.reranker.similarityTo(p.ids[i]));
+        }
+    }
+
+    /**
+     * The previous SimpleMappedReader implementation of the reads used by OnDiskGraphIndex.
+     */
+    private static class ElementwiseMappedReader implements RandomAccessReader {
+        private final MappedByteBuffer mbb;
+
+        ElementwiseMappedReader(MappedByteBuffer mbb) {
+            this.mbb = mbb;
+        }
+
+        @Override
+        public void seek(long offset) {
+            mbb.position((int) offset);
+        }
+
+        @Override
+        public int readInt() {
+            return mbb.getInt();
+        }
+
+        @Override
+        public void readFully(byte[] bytes) {
+            mbb.get(bytes);
+        }
+
+        @Override
+        public void readFully(float[] floats) {
+            for (int i = 0; i < floats.length; i++) {
+                floats[i] = mbb.getFloat();
+            }
+        }
+
+        @Override
+        public void readFully(long[] longs) {
+            for (int i = 0; i < longs.length; i++) {
+                longs[i] = mbb.getLong();
+            }
+        }
+
+        @Override
+        public void read(int[] ints, int offset, int count) {
+            for (int i = 0; i < count; i++) {
+                ints[offset + i] = mbb.getInt();
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
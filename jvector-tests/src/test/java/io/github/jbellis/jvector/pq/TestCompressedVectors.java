@@ -129,6 +129,31 @@ public class TestCompressedVectors extends RandomizedTest {
         }
     }
 
+    @Test
+    public void testBatchScoreFunctions() {
+        int dimension = 16;
+        var vectors = createRandomVectors(512, dimension);
+        var pq = ProductQuantization.compute(new ListRandomAccessVectorValues(vectors, dimension), 4, true);
+        var cv = new PQVectors(pq, pq.encodeAll(vectors));
+
+        // tables built for the whole batch should give the same scores as tables built one query at a time
+        for (var vsf : List.of(VectorSimilarityFunction.EUCLIDEAN, VectorSimilarityFunction.DOT_PRODUCT, VectorSimilarityFunction.COSINE)) {
+            var queries = createRandomVectors(5, dimension);
+            var batch = cv.approximateScoreFunctionsFor(queries, vsf);
+            assertEquals(queries.size(), batch.size());
+            for (int i = 0; i < queries.size(); i++) {
+                var expected = new float[vectors.size()];
+                var f = cv.approximateScoreFunctionFor(queries.get(i), vsf);
+                for (int j = 0; j < vectors.size(); j++) {
+                    expected[j] = f.similarityTo(j);
+                }
+                for (int j = 0; j < vectors.size(); j++) {
+                    assertEquals(expected[j], batch.get(i).similarityTo(j));
+                }
+            }
+        }
+    }
+
     @Test
     public void testCenteringDisturbance() {
 
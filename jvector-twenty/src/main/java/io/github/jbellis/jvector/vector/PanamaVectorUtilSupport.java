@@ -102,6 +102,16 @@ PanamaVectorUtilSupport implements VectorUtilSupport {
         return sum;
     }
 
+    @Override
+    public float assembleAndSum(float[] data, int baseIndex, byte[] baseOffsets, int offset, int length) {
+        // scalar for the same reason as above
+        float sum = 0f;
+        for (int i = 0; i < length; i++) {
+            sum += data[baseIndex * i + Byte.toUnsignedInt(baseOffsets[offset + i])];
+        }
+        return sum;
+    }
+
     @Override
     public int hammingDistance(long[] v1, long[] v2) {
         return SimdOps.hammingDistance(v1, v2);